@@ -0,0 +1,147 @@
+package com.example.bench;
+
+import com.example.dao.CitizenDAO;
+import com.example.dao.HibernateCitizenDAO;
+import com.example.dao.InMemoryCitizenDAO;
+import com.example.dao.SQLiteConnectionProvider;
+import com.example.dao.ShardedCitizenDAO;
+import com.example.entity.Citizen;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark database holding a fixed number of generated citizens.
+ *
+ * Each table size gets its own SQLite file under bench.results/db. The schema is
+ * created only when the file is new, so a file is populated once and reused by
+ * later forks and runs. Delete the directory after changing the entity.
+ *
+ * Call {@link #open} before anything touches CitizenDAO, it binds the DAO to the
+ * file for the rest of the JVM.
+ */
+final class BenchmarkDatabase {
+
+    /** Surname of rows added by write benchmarks, removed again after each trial */
+    static final String SCRATCH_SURNAME = "Benchscratch";
+
+    private static final String[] SURNAMES = {
+        "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis",
+        "Rodriguez", "Martinez", "Papadopoulos", "Georgiou", "Müller", "Schmidt", "Dubois",
+        "Rossi", "Novak", "Kowalski", "Jensen", "O'Brien"
+    };
+    private static final int CHUNK = 10_000;
+
+    private static final List<String> urls = new ArrayList<>();
+
+    private BenchmarkDatabase() {}
+
+    static synchronized CitizenDAO open(int rows) {
+        File dir = new File(System.getProperty("bench.results", "target/jmh"), "db");
+        dir.mkdirs();
+        File file = new File(dir, "citizens-" + rows + ".db");
+        String url = "jdbc:sqlite:" + file.getAbsolutePath();
+        urls.add(url);
+        System.setProperty(SQLiteConnectionProvider.URL, url);
+        // Not "update": the schema migrator cannot read the untyped columns of the FTS tables
+        System.setProperty("hibernate.hbm2ddl.auto", file.exists() ? "none" : "create");
+        System.setProperty("hibernate.show_sql", "false");
+
+        CitizenDAO dao = new HibernateCitizenDAO();
+        populate(dao, rows);
+        return dao;
+    }
+
+    /**
+     * A registry of the given size sharded over that many files, kept like those of
+     * {@link #open}
+     */
+    static synchronized CitizenDAO openSharded(int rows, int shards) {
+        File dir = new File(System.getProperty("bench.results", "target/jmh"), "db");
+        dir.mkdirs();
+        String base = "citizens-" + rows + "-of-" + shards;
+        System.setProperty(SQLiteConnectionProvider.URL, "jdbc:sqlite:" + new File(dir, base + ".db").getAbsolutePath());
+        File first = new File(dir, base + "-0.db");
+        System.setProperty("hibernate.hbm2ddl.auto", first.exists() ? "none" : "create");
+        System.setProperty("hibernate.show_sql", "false");
+        for (int shard = 0; shard < shards; shard++) {
+            urls.add("jdbc:sqlite:" + new File(dir, base + "-" + shard + ".db").getAbsolutePath());
+        }
+
+        CitizenDAO dao = new ShardedCitizenDAO(shards, shards * Runtime.getRuntime().availableProcessors(), 100_000);
+        populate(dao, rows);
+        return dao;
+    }
+
+    /**
+     * An in-memory registry of the given size in a fresh directory, see {@link #deleteInMemory}
+     */
+    static CitizenDAO openInMemory(int rows, Path dir) {
+        CitizenDAO dao = new InMemoryCitizenDAO(dir, true, 64L * 1024 * 1024, 100_000);
+        populate(dao, rows);
+        return dao;
+    }
+
+    static void deleteInMemory(CitizenDAO dao, Path dir) throws IOException {
+        dao.close();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static void populate(CitizenDAO dao, int rows) {
+        long existing = dao.count();
+        List<Citizen> chunk = new ArrayList<>(CHUNK);
+        for (long i = existing; i < rows; i++) {
+            chunk.add(citizen(i));
+            if (chunk.size() == CHUNK || i == rows - 1) {
+                dao.saveAll(chunk);
+                chunk = new ArrayList<>(CHUNK);
+            }
+        }
+    }
+
+    /**
+     * The i-th generated citizen, names are unique and pass CitizenService validation
+     */
+    static Citizen citizen(long i) {
+        return new Citizen(name(i), SURNAMES[(int) (i % SURNAMES.length)]);
+    }
+
+    /**
+     * Letters-only name derived from a number: 0 is "Na", 1 is "Nb", 26 is "Nba"
+     */
+    static String name(long i) {
+        StringBuilder letters = new StringBuilder();
+        do {
+            letters.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return "N" + letters.reverse();
+    }
+
+    /**
+     * Remove the rows write benchmarks added, so every trial sees the same table size
+     */
+    static void removeScratchRows() {
+        for (String url : urls) {
+            try (Connection connection = DriverManager.getConnection(url);
+                 Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DELETE FROM citizens WHERE surname = '" + SCRATCH_SURNAME + "'");
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not clean up benchmark rows", e);
+            }
+        }
+    }
+}
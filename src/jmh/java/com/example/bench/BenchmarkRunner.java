@@ -0,0 +1,46 @@
+package com.example.bench;
+
+import java.io.File;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the registry benchmarks once per thread count and writes one JSON result
+ * file per run to bench.results, so baselines can be kept and diffed.
+ *
+ * System properties:
+ *   bench.include  regex of benchmarks to run (default: all of com.example.bench)
+ *   bench.threads  comma-separated thread counts (default: 1)
+ *   bench.args     extra JMH command-line options, e.g. "-p rows=1000 -wi 1"
+ *   bench.results  output directory (default: target/jmh)
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        String include = System.getProperty("bench.include", "com.example.bench");
+        String threads = System.getProperty("bench.threads", "1");
+        String extraArgs = System.getProperty("bench.args", "").trim();
+        File results = new File(System.getProperty("bench.results", "target/jmh"));
+        results.mkdirs();
+
+        CommandLineOptions commandLine = new CommandLineOptions(
+                extraArgs.isEmpty() ? new String[0] : extraArgs.split("\\s+"));
+
+        for (String count : threads.split(",")) {
+            int threadCount = Integer.parseInt(count.trim());
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(threadCount)
+                    .jvmArgsAppend("-Dbench.results=" + results.getAbsolutePath())
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(results, "result-t" + threadCount + ".json").getPath());
+            if (commandLine.getIncludes().isEmpty()) {
+                options.include(include);
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
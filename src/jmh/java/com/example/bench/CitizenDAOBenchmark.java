@@ -0,0 +1,93 @@
+package com.example.bench;
+
+import com.example.dao.CitizenDAO;
+import com.example.entity.Citizen;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * CitizenDAO hot paths against a registry holding {@code rows} citizens, on each
+ * backend: a SQLite file, four SQLite shards, or the in-memory store with its
+ * write-ahead log. Run save with -t 4 or more to see the shards write in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CitizenDAOBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"sqlite", "sharded", "memory"})
+    public String backend;
+
+    private CitizenDAO dao;
+    private Path memoryDir;
+    private final AtomicLong saved = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (backend.equals("memory")) {
+            memoryDir = Files.createTempDirectory("citizens-bench");
+            dao = BenchmarkDatabase.openInMemory(rows, memoryDir);
+        } else if (backend.equals("sharded")) {
+            dao = BenchmarkDatabase.openSharded(rows, 4);
+        } else {
+            dao = BenchmarkDatabase.open(rows);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (memoryDir != null) {
+            BenchmarkDatabase.deleteInMemory(dao, memoryDir);
+        } else {
+            BenchmarkDatabase.removeScratchRows();
+        }
+    }
+
+    @Benchmark
+    public Citizen save() {
+        return dao.save(new Citizen(BenchmarkDatabase.name(saved.getAndIncrement()),
+                BenchmarkDatabase.SCRATCH_SURNAME));
+    }
+
+    @Benchmark
+    public Citizen findById() {
+        return dao.findById(ThreadLocalRandom.current().nextLong(1, rows + 1));
+    }
+
+    @Benchmark
+    public List<Citizen> findByName() {
+        // Three letters from a random existing name, a typical partial search
+        String name = BenchmarkDatabase.name(ThreadLocalRandom.current().nextLong(rows));
+        return dao.findByName(name.length() > 3 ? name.substring(name.length() - 3) : name);
+    }
+
+    @Benchmark
+    public List<Citizen> fuzzySearch() {
+        // An existing citizen with the last letter of the name dropped
+        Citizen citizen = BenchmarkDatabase.citizen(ThreadLocalRandom.current().nextLong(rows));
+        String name = citizen.getName();
+        return dao.fuzzySearch(name.substring(0, name.length() - 1) + " " + citizen.getSurname(), 20);
+    }
+
+    @Benchmark
+    public List<Citizen> findPage() {
+        return dao.findPage(ThreadLocalRandom.current().nextLong(rows), 100);
+    }
+
+    @Benchmark
+    public List<Citizen> findAll() {
+        return dao.findAll();
+    }
+}
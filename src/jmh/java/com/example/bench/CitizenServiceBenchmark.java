@@ -0,0 +1,56 @@
+package com.example.bench;
+
+import com.example.entity.Citizen;
+import com.example.exception.CitizenValidationException;
+import com.example.service.CitizenService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * CitizenService.registerCitizen: validation, name normalization and the duplicate check,
+ * with and without the insert.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CitizenServiceBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private CitizenService service;
+    private final AtomicLong registered = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        service = new CitizenService(BenchmarkDatabase.open(rows));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkDatabase.removeScratchRows();
+    }
+
+    @Benchmark
+    public Citizen registerCitizen() {
+        // Lower case and padded so normalization has work to do
+        String name = "  " + BenchmarkDatabase.name(registered.getAndIncrement()).toLowerCase() + " ";
+        return service.registerCitizen(new Citizen(name, BenchmarkDatabase.SCRATCH_SURNAME.toLowerCase()));
+    }
+
+    @Benchmark
+    public Object registerDuplicate() {
+        // Everything up to the insert: validation, normalization and the duplicate lookup
+        Citizen existing = BenchmarkDatabase.citizen(ThreadLocalRandom.current().nextLong(rows));
+        try {
+            return service.registerCitizen(new Citizen(existing.getName().toUpperCase(), existing.getSurname()));
+        } catch (CitizenValidationException e) {
+            return e;
+        }
+    }
+}
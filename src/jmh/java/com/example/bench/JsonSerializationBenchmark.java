@@ -0,0 +1,42 @@
+package com.example.bench;
+
+import com.example.entity.Citizen;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Jackson serialization of Citizen lists, the body of every list and search response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSerializationBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    private final ObjectWriter writer = new ObjectMapper().writerFor(List.class);
+    private List<Citizen> citizens;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        citizens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Citizen citizen = BenchmarkDatabase.citizen(i);
+            citizen.setId((long) i + 1);
+            citizens.add(citizen);
+        }
+    }
+
+    @Benchmark
+    public byte[] serializeList() throws Exception {
+        return writer.writeValueAsBytes(citizens);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.bench;
+
+import com.example.entity.Citizen;
+import com.example.service.CitizenValidator;
+import com.example.service.LegacyCitizenValidator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * CitizenValidator against the regex-based validation it replaced. Run with
+ * -Dbench.args="-prof gc" to compare allocation per operation as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationBenchmark {
+
+    /**
+     * normalized: input as clients usually send it; messy: padded, extra spaces, mixed case
+     */
+    @Param({"normalized", "messy"})
+    public String input;
+
+    private String name;
+    private String surname;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (input.equals("normalized")) {
+            name = "Jean-pierre";
+            surname = "De La Fontaine";
+        } else {
+            name = "  jean-PIERRE ";
+            surname = "de   la\tFONTAINE  ";
+        }
+    }
+
+    @Benchmark
+    public Citizen legacy() {
+        Citizen citizen = new Citizen(name, surname);
+        LegacyCitizenValidator.validate(citizen);
+        return citizen;
+    }
+
+    @Benchmark
+    public Citizen singlePass() {
+        Citizen citizen = new Citizen(name, surname);
+        CitizenValidator.validate(citizen);
+        return citizen;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Results of a load test per operation, written as JSON so runs can be diffed.
+ *
+ * Latency runs from the time a request was scheduled to its response, so time spent
+ * waiting for a free client counts: a server falling behind shows in the percentiles
+ * instead of only slowing the test down (coordinated omission). Service time runs from
+ * sending the request to its response.
+ *
+ * Only successful (2xx and 3xx) responses go into the percentiles and the throughput.
+ * A 429 or 503 turned away by the server's limits returns quickly, and counted with
+ * the rest it would make an overloaded server look faster; these are reported as
+ * shed, other error statuses as failed and requests without a response as errors.
+ */
+final class LoadReport {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final class Results {
+        final Histogram latency = new ConcurrentHistogram(3);
+        final Histogram service = new ConcurrentHistogram(3);
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final LongAdder shed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+
+    private final Map<Operation, Results> results = new EnumMap<>(Operation.class);
+
+    LoadReport() {
+        for (Operation operation : Operation.values()) {
+            results.put(operation, new Results());
+        }
+    }
+
+    /**
+     * A response with the given status, times in nanoseconds
+     */
+    void record(Operation operation, int status, long latencyNanos, long serviceNanos) {
+        Results operationResults = results.get(operation);
+        if (status < 400) {
+            operationResults.latency.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+            operationResults.service.recordValue(TimeUnit.NANOSECONDS.toMicros(serviceNanos));
+        } else if (status == 429 || status == 503) {
+            operationResults.shed.increment();
+        } else {
+            operationResults.failed.increment();
+        }
+        operationResults.statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * A request that got no response
+     */
+    void error(Operation operation) {
+        results.get(operation).errors.increment();
+    }
+
+    /**
+     * Write the results measured over the given time, with the settings and facts of the run
+     */
+    Map<String, Object> write(File file, double seconds, Map<String, Object> run) throws IOException {
+        Histogram allLatency = new Histogram(3);
+        Histogram allService = new Histogram(3);
+        long allShed = 0;
+        long allFailed = 0;
+        long allErrors = 0;
+        Map<String, Object> operations = new LinkedHashMap<>();
+        for (Map.Entry<Operation, Results> entry : results.entrySet()) {
+            Results operationResults = entry.getValue();
+            long shed = operationResults.shed.sum();
+            long failed = operationResults.failed.sum();
+            long errors = operationResults.errors.sum();
+            if (operationResults.latency.getTotalCount() == 0 && shed == 0 && failed == 0 && errors == 0) {
+                continue;
+            }
+            allLatency.add(operationResults.latency);
+            allService.add(operationResults.service);
+            allShed += shed;
+            allFailed += failed;
+            allErrors += errors;
+            Map<String, Object> summary = summary(operationResults.latency, operationResults.service,
+                    shed, failed, errors, seconds);
+            Map<String, Long> statuses = new TreeMap<>();
+            operationResults.statuses.forEach((status, count) -> statuses.put(String.valueOf(status), count.sum()));
+            summary.put("statuses", statuses);
+            operations.put(entry.getKey().key(), summary);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>(run);
+        report.put("measuredSeconds", round(seconds));
+        report.put("total", summary(allLatency, allService, allShed, allFailed, allErrors, seconds));
+        report.put("operations", operations);
+        file.getParentFile().mkdirs();
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+        return report;
+    }
+
+    /**
+     * One line per operation with throughput and latency percentiles in milliseconds,
+     * both of successful responses
+     */
+    @SuppressWarnings("unchecked")
+    static String table(Map<String, Object> report) {
+        StringBuilder table = new StringBuilder(String.format("%-8s %9s %9s %7s %7s %7s %9s %9s %9s %9s %9s%n",
+                "op", "requests", "ok/s", "shed", "failed", "errors", "p50", "p90", "p99", "p99.9", "max"));
+        Map<String, Object> rows = new LinkedHashMap<>((Map<String, Object>) report.get("operations"));
+        rows.put("total", report.get("total"));
+        rows.forEach((name, value) -> {
+            Map<String, Object> row = (Map<String, Object>) value;
+            Map<String, Object> latency = (Map<String, Object>) row.get("latencyMillis");
+            table.append(String.format("%-8s %9d %9.1f %7d %7d %7d %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    name, row.get("requests"), row.get("throughput"), row.get("shed"), row.get("failed"), row.get("errors"),
+                    latency.get("p50"), latency.get("p90"), latency.get("p99"), latency.get("p99.9"), latency.get("max")));
+        });
+        return table.toString();
+    }
+
+    private static Map<String, Object> summary(Histogram latency, Histogram service,
+                                               long shed, long failed, long errors, double seconds) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", latency.getTotalCount() + shed + failed + errors);
+        summary.put("throughput", round(latency.getTotalCount() / seconds));
+        summary.put("shed", shed);
+        summary.put("failed", failed);
+        summary.put("errors", errors);
+        summary.put("latencyMillis", percentiles(latency));
+        summary.put("serviceTimeMillis", percentiles(service));
+        return summary;
+    }
+
+    private static Map<String, Double> percentiles(Histogram histogram) {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        for (double percentile : PERCENTILES) {
+            String name = percentile == Math.rint(percentile) ? "p" + (int) percentile : "p" + percentile;
+            percentiles.put(name, millis(histogram.getValueAtPercentile(percentile)));
+        }
+        percentiles.put("max", millis(histogram.getMaxValue()));
+        percentiles.put("mean", millis(histogram.getTotalCount() == 0 ? 0 : histogram.getMean()));
+        return percentiles;
+    }
+
+    private static double millis(double micros) {
+        return round(micros / 1000);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
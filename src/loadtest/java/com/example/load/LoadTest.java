@@ -0,0 +1,292 @@
+package com.example.load;
+
+import com.example.Main;
+import com.example.dao.CitizenDAO;
+import com.example.dao.SQLiteConnectionProvider;
+import com.example.entity.Citizen;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+/**
+ * Open-loop load test of the server, started in this JVM on a free port against a
+ * throwaway database.
+ *
+ * Requests are scheduled at the target rate whether or not earlier ones have been
+ * answered, and handed to a fixed number of clients. When the clients cannot keep up
+ * requests wait in line, and that wait counts in their latency, see LoadReport.
+ * The same seed schedules the same requests at the same times.
+ *
+ * System properties:
+ *   load.rate             requests per second (default: 200)
+ *   load.duration-s       measured seconds (default: 30)
+ *   load.warmup-s         seconds run before measuring (default: 5)
+ *   load.clients          concurrent clients (default: 32)
+ *   load.mix              operation weights (default: get:50,list:15,search:15,create:15,delete:5)
+ *   load.arrivals         "uniform" or "poisson" gaps between requests (default: uniform)
+ *   load.rows             citizens stored before the run (default: 10000)
+ *   load.seed             random seed (default: 42)
+ *   load.server-settings  server settings for the run, e.g. "citizen.db.backend=memory,citizen.server.gzip.enabled=false";
+ *                         the per-client rate limits and the cap on expensive requests are off unless set here
+ *   load.results          output directory (default: target/load)
+ */
+public class LoadTest {
+
+    private static final int CHUNK = 10_000;
+    private static final long DRAIN_SECONDS = 60;
+
+    // Scheduled request, null operation tells a client to stop
+    private record Scheduled(Operation operation, long random, long intendedNanos, boolean measured) {}
+
+    public static void main(String[] args) throws Exception {
+        int rate = Integer.getInteger("load.rate", 200);
+        int durationSeconds = Integer.getInteger("load.duration-s", 30);
+        int warmupSeconds = Integer.getInteger("load.warmup-s", 5);
+        int clients = Integer.getInteger("load.clients", 32);
+        String mixSetting = System.getProperty("load.mix", "get:50,list:15,search:15,create:15,delete:5");
+        String arrivals = System.getProperty("load.arrivals", "uniform");
+        int rows = Integer.getInteger("load.rows", 10_000);
+        long seed = Long.getLong("load.seed", 42L);
+        String serverSettings = System.getProperty("load.server-settings", "");
+        File results = new File(System.getProperty("load.results", "target/load"));
+        Map<Operation, Integer> mix = parseMix(mixSetting);
+        if (!arrivals.equals("uniform") && !arrivals.equals("poisson")) {
+            throw new IllegalArgumentException("load.arrivals must be uniform or poisson but was: " + arrivals);
+        }
+
+        Path data = Files.createTempDirectory("citizen-load");
+        // Before anything touches CitizenDAO, the backend reads its settings once
+        System.setProperty(SQLiteConnectionProvider.URL, "jdbc:sqlite:" + data.resolve("citizens.db"));
+        System.setProperty("citizen.memory.dir", data.resolve("memory").toString());
+        System.setProperty("hibernate.show_sql", "false");
+        // Every request comes from this one address, so the server's per-client limits are off
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("citizen.limits.read-rate", "0");
+        settings.put("citizen.limits.write-rate", "0");
+        settings.put("citizen.limits.max-expensive", "0");
+        settings.putAll(parseSettings(serverSettings));
+        settings.forEach(System::setProperty);
+        System.setProperty("citizen.server.port", "0");
+
+        long startupStart = System.nanoTime();
+        Server server = Main.start();
+        CitizenDAO citizenDAO = CitizenDAO.configured();
+        double startupMillis = (System.nanoTime() - startupStart) / 1e6;
+        try {
+            URI base = URI.create("http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/api/");
+            long preloadStart = System.nanoTime();
+            Workload workload = new Workload(preload(citizenDAO, rows));
+            double preloadSeconds = (System.nanoTime() - preloadStart) / 1e9;
+            System.out.printf("Server up in %.0f ms, %d citizens stored in %.1f s, running %d s at %d req/s%n",
+                    startupMillis, rows, preloadSeconds, warmupSeconds + durationSeconds, rate);
+
+            LoadReport report = new LoadReport();
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Operation.TIMEOUT)
+                    .build();
+            BlockingQueue<Scheduled> queue = new LinkedBlockingQueue<>();
+            AtomicLong lastResponse = new AtomicLong();
+            List<Thread> threads = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                Thread thread = new Thread(() -> runClient(client, base, workload, queue, report, lastResponse), "load-client-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+
+            Instant startedAt = Instant.now();
+            long measureStart = schedule(queue, mix, arrivals.equals("poisson"), rate, warmupSeconds, durationSeconds, seed);
+            for (int i = 0; i < clients; i++) {
+                queue.add(new Scheduled(null, 0, 0, false));
+            }
+            long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+            for (Thread thread : threads) {
+                thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(drainDeadline - System.nanoTime())));
+            }
+            long unanswered = queue.stream().filter(scheduled -> scheduled.operation() != null).count();
+            threads.forEach(Thread::interrupt);
+            double seconds = Math.max(durationSeconds, (lastResponse.get() - measureStart) / 1e9);
+
+            Map<String, Object> run = new LinkedHashMap<>();
+            run.put("startedAt", startedAt.toString());
+            run.put("rate", rate);
+            run.put("durationSeconds", durationSeconds);
+            run.put("warmupSeconds", warmupSeconds);
+            run.put("clients", clients);
+            run.put("mix", mixSetting);
+            run.put("arrivals", arrivals);
+            run.put("rows", rows);
+            run.put("seed", seed);
+            run.put("serverSettings", settings);
+            run.put("processors", Runtime.getRuntime().availableProcessors());
+            run.put("startupMillis", Math.round(startupMillis));
+            run.put("preloadSeconds", Math.round(preloadSeconds * 10) / 10.0);
+            run.put("unanswered", unanswered);
+            File file = new File(results, "load-r" + rate + "-c" + clients + ".json");
+            Map<String, Object> written = report.write(file, seconds, run);
+            System.out.print(LoadReport.table(written));
+            System.out.println("Report written to " + file.getPath());
+        } finally {
+            Main.stop(server);
+            deleteRecursively(data);
+        }
+    }
+
+    /**
+     * Hand out requests at their scheduled times until the run is over, returning
+     * when measuring started
+     */
+    private static long schedule(BlockingQueue<Scheduled> queue, Map<Operation, Integer> mix, boolean poisson,
+                                 int rate, int warmupSeconds, int durationSeconds, long seed) {
+        Random random = new Random(seed);
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        double gapNanos = 1e9 / rate;
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+        double offset = 0;
+        while (true) {
+            long intended = start + (long) offset;
+            if (intended >= end) {
+                return measureStart;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            queue.add(new Scheduled(pick(mix, random.nextInt(totalWeight)), random.nextLong(), intended, intended >= measureStart));
+            offset += poisson ? -Math.log(1 - random.nextDouble()) * gapNanos : gapNanos;
+        }
+    }
+
+    private static void runClient(HttpClient client, URI base, Workload workload, BlockingQueue<Scheduled> queue,
+                                  LoadReport report, AtomicLong lastResponse) {
+        ObjectMapper mapper = new ObjectMapper();
+        while (true) {
+            Scheduled scheduled;
+            try {
+                scheduled = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (scheduled.operation() == null) {
+                return;
+            }
+            Operation operation = scheduled.operation();
+            HttpRequest request = operation.request(base, workload, scheduled.random());
+            if (request == null) {
+                // Nothing left to delete, keep the rate by creating instead
+                operation = Operation.CREATE;
+                request = operation.request(base, workload, scheduled.random());
+            }
+            long sent = System.nanoTime();
+            try {
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                long received = System.nanoTime();
+                if (operation == Operation.CREATE && response.statusCode() == 201) {
+                    workload.created(mapper.readTree(response.body()).get("id").asLong());
+                }
+                if (scheduled.measured()) {
+                    report.record(operation, response.statusCode(), received - scheduled.intendedNanos(), received - sent);
+                    lastResponse.accumulateAndGet(received, Math::max);
+                }
+            } catch (IOException e) {
+                if (scheduled.measured()) {
+                    report.error(operation);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static long[] preload(CitizenDAO citizenDAO, int rows) {
+        if (rows < 1) {
+            throw new IllegalArgumentException("load.rows must be at least 1, reads need citizens to find");
+        }
+        long[] ids = new long[rows];
+        List<Citizen> chunk = new ArrayList<>(CHUNK);
+        for (int i = 0; i < rows; i++) {
+            chunk.add(Workload.citizen(i));
+            if (chunk.size() == CHUNK || i == rows - 1) {
+                int first = i + 1 - chunk.size();
+                List<Citizen> saved = citizenDAO.saveAll(chunk);
+                for (int j = 0; j < saved.size(); j++) {
+                    ids[first + j] = saved.get(j).getId();
+                }
+                chunk = new ArrayList<>(CHUNK);
+            }
+        }
+        return ids;
+    }
+
+    private static Operation pick(Map<Operation, Integer> mix, int point) {
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            point -= entry.getValue();
+            if (point < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Point beyond the total weight");
+    }
+
+    static Map<Operation, Integer> parseMix(String setting) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (String part : setting.split(",")) {
+            String[] weight = part.trim().split(":");
+            try {
+                mix.put(Operation.valueOf(weight[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(weight[1].trim()));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("load.mix entries look like get:50 but one was: " + part, e);
+            }
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("load.mix needs a positive weight: " + setting);
+        }
+        return mix;
+    }
+
+    private static Map<String, String> parseSettings(String setting) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (String part : setting.split(",")) {
+            int equals = part.indexOf('=');
+            if (equals > 0) {
+                settings.put(part.substring(0, equals).trim(), part.substring(equals + 1).trim());
+            } else if (!part.isBlank()) {
+                throw new IllegalArgumentException("load.server-settings entries look like key=value but one was: " + part);
+            }
+        }
+        return settings;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.load;
+
+import com.example.entity.Citizen;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * The requests a load test sends. Each one is built from a random number drawn when
+ * it is scheduled, so a seed gives the same sequence of requests on every run.
+ */
+enum Operation {
+
+    /** One preloaded citizen by id */
+    GET {
+        @Override
+        HttpRequest request(URI base, Workload workload, long random) {
+            return get(base, "citizens/" + workload.preloadedId(random));
+        }
+    },
+    /** A page of 50 starting after a preloaded citizen */
+    LIST {
+        @Override
+        HttpRequest request(URI base, Workload workload, long random) {
+            return get(base, "citizens?limit=50&after=" + workload.preloadedId(random));
+        }
+    },
+    /** Full-text search for one of the surnames */
+    SEARCH {
+        @Override
+        HttpRequest request(URI base, Workload workload, long random) {
+            String surname = Workload.SURNAMES[(int) Math.floorMod(random, (long) Workload.SURNAMES.length)];
+            return get(base, "citizens/search/text?limit=20&q=" + surname.toLowerCase(Locale.ROOT));
+        }
+    },
+    /** A citizen with a new name */
+    CREATE {
+        @Override
+        HttpRequest request(URI base, Workload workload, long random) {
+            Citizen citizen = workload.newCitizen();
+            String body = "{\"name\":\"" + citizen.getName() + "\",\"surname\":\"" + citizen.getSurname() + "\"}";
+            return builder(base, "citizens")
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+        }
+    },
+    /** A citizen the run created, or null when none is left to delete */
+    DELETE {
+        @Override
+        HttpRequest request(URI base, Workload workload, long random) {
+            Long id = workload.takeCreated();
+            return id == null ? null : builder(base, "citizens/" + id).DELETE().build();
+        }
+    };
+
+    static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    abstract HttpRequest request(URI base, Workload workload, long random);
+
+    String key() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    private static HttpRequest get(URI base, String path) {
+        return builder(base, path).header("Accept", "application/json").GET().build();
+    }
+
+    private static HttpRequest.Builder builder(URI base, String path) {
+        return HttpRequest.newBuilder(base.resolve(path)).timeout(TIMEOUT);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.load;
+
+import com.example.entity.Citizen;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The citizens a load test works on: the preloaded ones, which are read but never
+ * changed, and those the run created, which deletes take from.
+ */
+final class Workload {
+
+    static final String[] SURNAMES = {
+        "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis",
+        "Rodriguez", "Martinez", "Papadopoulos", "Georgiou", "Mueller", "Schmidt", "Dubois",
+        "Rossi", "Novak", "Kowalski", "Jensen", "Obrien"
+    };
+
+    private final long[] preloaded;
+    private final ConcurrentLinkedDeque<Long> created = new ConcurrentLinkedDeque<>();
+    private final AtomicLong nextName;
+
+    Workload(long[] preloaded) {
+        this.preloaded = preloaded;
+        this.nextName = new AtomicLong(preloaded.length);
+    }
+
+    long preloadedId(long random) {
+        return preloaded[(int) Math.floorMod(random, (long) preloaded.length)];
+    }
+
+    /**
+     * A citizen nobody has used yet
+     */
+    Citizen newCitizen() {
+        return citizen(nextName.getAndIncrement());
+    }
+
+    void created(long id) {
+        created.push(id);
+    }
+
+    /**
+     * The newest citizen created by the run and not deleted yet, or null
+     */
+    Long takeCreated() {
+        return created.poll();
+    }
+
+    /**
+     * The i-th generated citizen, letters only so it passes validation
+     */
+    static Citizen citizen(long i) {
+        return new Citizen(name(i), SURNAMES[(int) (i % SURNAMES.length)]);
+    }
+
+    /**
+     * Letters-only name derived from a number: 0 is "La", 1 is "Lb", 26 is "Lba"
+     */
+    static String name(long i) {
+        StringBuilder letters = new StringBuilder();
+        do {
+            letters.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return "L" + letters.reverse();
+    }
+}
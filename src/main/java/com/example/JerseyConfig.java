@@ -1,5 +1,6 @@
 package com.example;
 
+import com.example.metrics.RequestMetricsListener;
 import com.example.resource.CitizenResource;
 import jakarta.ws.rs.ApplicationPath;
 import org.glassfish.jersey.server.ResourceConfig;
@@ -12,6 +13,9 @@ public class JerseyConfig extends ResourceConfig {
         // Register REST resources
         register(CitizenResource.class);
         
+        // Request timings for /metrics
+        register(RequestMetricsListener.class);
+        
         // Enable validation
         register(ValidationFeature.class);
         
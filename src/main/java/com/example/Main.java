@@ -1,35 +1,70 @@
 package com.example;
 
+import com.example.config.AppConfig;
 import com.example.dao.CitizenDAO;
+import com.example.metrics.Metrics;
+import com.example.metrics.MetricsServlet;
+import com.example.resource.AdmissionFilter;
+import com.example.resource.RequestExecutors;
+import com.example.service.ChangeFeed;
+import com.example.service.IdempotencyStore;
+import io.micrometer.core.instrument.Gauge;
+import jakarta.servlet.DispatcherType;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.LocalConnector;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.compression.CompressionPool;
+import org.eclipse.jetty.util.compression.DeflaterPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.glassfish.jersey.servlet.ServletContainer;
 
 public class Main {
     
-    private static final int PORT = 8080;
+    // Requests sent in-process before the port opens
+    private static final String[] WARM_UP_PATHS = {
+        "/api/citizens?limit=1",
+        "/api/citizens/0",
+        "/api/citizens/search?name=Warm",
+        "/api/citizens/search/text?q=warm&limit=1",
+        "/api/citizens/search/fuzzy?q=warm&limit=1",
+        "/metrics",
+    };
     
     public static void main(String[] args) {
-        Server server = new Server(PORT);
-        
-        // Create servlet context handler
-        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
-        context.setContextPath("/");
-        
-        // Create Jersey servlet
-        ServletHolder jerseyServlet = context.addServlet(ServletContainer.class, "/api/*");
-        jerseyServlet.setInitOrder(0);
-        jerseyServlet.setInitParameter("jakarta.ws.rs.Application", "com.example.JerseyConfig");
-        
-        server.setHandler(context);
+        Server server;
+        try {
+            server = start();
+        } catch (Exception e) {
+            System.err.println("Error starting server: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+            return;
+        }
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
         
         // Add shutdown hook to properly close database connections
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
                 System.out.println("Shutting down server...");
-                CitizenDAO.closeEntityManagerFactory();
-                server.stop();
+                stop(server);
                 System.out.println("Server stopped.");
             } catch (Exception e) {
                 System.err.println("Error during shutdown: " + e.getMessage());
@@ -37,15 +72,192 @@ public class Main {
         }));
         
         try {
-            System.out.println("Starting server on port " + PORT + "...");
-            server.start();
             System.out.println("Server started successfully!");
-            System.out.println("API available at: http://localhost:" + PORT + "/api/citizens");
+            System.out.println("API available at: http://localhost:" + port + "/api/citizens");
+            System.out.println("Metrics available at: http://localhost:" + port + "/metrics");
+            System.out.println("Readiness at: http://localhost:" + port + "/ready");
             System.out.println("Press Ctrl+C to stop the server");
             server.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Create and start the server, opening its port only once requests can be served.
+     *
+     * The database is opened, migrated and warmed up on another thread while Jetty and
+     * Jersey start; then a few requests go through an in-process connector, so the
+     * first clients do not pay for loading and compiling the request path. Phase times
+     * are printed and the total is kept in the citizen.startup.seconds gauge.
+     */
+    public static Server start() throws Exception {
+        long begin = System.nanoTime();
+        CompletableFuture<Long> database = CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            CitizenDAO.configured().warmUp();
+            return System.nanoTime() - start;
+        });
+        
+        Server server = createServer();
+        // Handlers first, the port opens once the database is ready
+        Connector[] connectors = server.getConnectors();
+        server.setConnectors(new Connector[0]);
+        LocalConnector local = new LocalConnector(server);
+        server.addConnector(local);
+        long handlersNanos;
+        long databaseNanos;
+        long requestsNanos;
+        try {
+            server.start();
+            handlersNanos = System.nanoTime() - begin;
+            try {
+                databaseNanos = database.join();
+            } catch (CompletionException e) {
+                throw new IllegalStateException("Could not open the database", e.getCause());
+            }
+            long warmStart = System.nanoTime();
+            for (String path : WARM_UP_PATHS) {
+                local.getResponse("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n",
+                        10, TimeUnit.SECONDS);
+            }
+            requestsNanos = System.nanoTime() - warmStart;
+            
+            server.removeConnector(local);
+            local.stop();
+            for (Connector connector : connectors) {
+                server.addConnector(connector);
+                connector.start();
+            }
         } catch (Exception e) {
-            System.err.println("Error starting server: " + e.getMessage());
-            e.printStackTrace();
+            server.stop();
+            throw e;
+        }
+        ReadinessServlet.setReady(true);
+        
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        Gauge.builder("citizen.startup.seconds", () -> seconds)
+                .description("Time from the start of Main.start until the port opened")
+                .register(Metrics.REGISTRY);
+        System.out.printf("Ready in %.2f s (JVM up %.2f s): handlers %.2f s, database %.2f s, warm-up requests %.2f s%n",
+                seconds, ManagementFactory.getRuntimeMXBean().getUptime() / 1e3, handlersNanos / 1e9,
+                databaseNanos / 1e9, requestsNanos / 1e9);
+        return server;
+    }
+    
+    /**
+     * The server with the API, metrics and readiness mounted, not started yet; see start.
+     * Port 0 in citizen.server.port picks a free port, see ServerConnector.getLocalPort()
+     * once started.
+     */
+    public static Server createServer() {
+        Server server = new Server(createThreadPool());
+        server.addConnector(createConnector(server));
+        
+        // Create servlet context handler
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/");
+        
+        // Create Jersey servlet
+        ServletHolder jerseyServlet = context.addServlet(ServletContainer.class, "/api/*");
+        jerseyServlet.setInitOrder(0);
+        jerseyServlet.setInitParameter("jakarta.ws.rs.Application", "com.example.JerseyConfig");
+        // Resources suspend requests and resume them from the request executors
+        jerseyServlet.setAsyncSupported(true);
+        
+        // Rate limits and the cap on expensive requests, ahead of Jersey
+        FilterHolder admission = new FilterHolder(new AdmissionFilter());
+        admission.setAsyncSupported(true);
+        context.addFilter(admission, "/api/*", EnumSet.of(DispatcherType.REQUEST));
+        
+        // Prometheus scrape endpoint
+        context.addServlet(new ServletHolder(new MetricsServlet()), "/metrics");
+        // Outside /api, so probes are not rate limited
+        context.addServlet(new ServletHolder(new ReadinessServlet()), "/ready");
+        
+        if (AppConfig.getBoolean("citizen.server.gzip.enabled", true)) {
+            GzipHandler gzip = createGzipHandler();
+            gzip.setHandler(context);
+            server.setHandler(gzip);
+        } else {
+            server.setHandler(context);
+        }
+        return server;
+    }
+    
+    /**
+     * Report not ready and stop taking requests, then release the change feed, the
+     * idempotency store, the request executors and the database
+     */
+    public static void stop(Server server) throws Exception {
+        ReadinessServlet.setReady(false);
+        server.stop();
+        ChangeFeed.shutdownShared();
+        IdempotencyStore.shutdownShared();
+        RequestExecutors.shutdown();
+        CitizenDAO.configured().close();
+    }
+    
+    /**
+     * The HTTP connector: HTTP/1.1, plus cleartext HTTP/2 (h2c, by upgrade or prior
+     * knowledge) unless citizen.server.h2c.enabled=false. Acceptor and selector
+     * counts of -1 leave the choice to Jetty, which sizes them from the core count.
+     */
+    private static ServerConnector createConnector(Server server) {
+        HttpConfiguration config = new HttpConfiguration();
+        config.setOutputBufferSize(AppConfig.getInt("citizen.server.output-buffer-size", 32768));
+        config.setRequestHeaderSize(AppConfig.getInt("citizen.server.request-header-size", 8192));
+        config.setResponseHeaderSize(AppConfig.getInt("citizen.server.response-header-size", 8192));
+        config.setSendServerVersion(false);
+        
+        List<ConnectionFactory> factories = new ArrayList<>();
+        factories.add(new HttpConnectionFactory(config));
+        if (AppConfig.getBoolean("citizen.server.h2c.enabled", true)) {
+            HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(config);
+            h2c.setMaxConcurrentStreams(AppConfig.getInt("citizen.server.h2c.max-concurrent-streams", 256));
+            factories.add(h2c);
+        }
+        
+        ServerConnector connector = new ServerConnector(server,
+                AppConfig.getInt("citizen.server.acceptors", -1),
+                AppConfig.getInt("citizen.server.selectors", -1),
+                factories.toArray(new ConnectionFactory[0]));
+        connector.setHost(AppConfig.getString("citizen.server.host", null));
+        connector.setPort(AppConfig.getInt("citizen.server.port", 8080));
+        connector.setIdleTimeout(AppConfig.getLong("citizen.server.idle-timeout-ms", 30000));
+        connector.setAcceptQueueSize(AppConfig.getInt("citizen.server.accept-queue-size", 1024));
+        return connector;
+    }
+    
+    /**
+     * Compresses JSON, NDJSON and text responses larger than citizen.server.gzip.min-size
+     * for clients that accept gzip, and inflates gzip-encoded request bodies such as bulk
+     * uploads. Exports are compressed as they stream, flushed batch by batch.
+     */
+    private static GzipHandler createGzipHandler() {
+        GzipHandler gzip = new GzipHandler();
+        gzip.setMinGzipSize(AppConfig.getInt("citizen.server.gzip.min-size", 1024));
+        gzip.setIncludedMimeTypes("application/json", "application/x-ndjson", "text/plain");
+        gzip.setIncludedMethods("GET", "POST", "PUT");
+        gzip.setInflateBufferSize(AppConfig.getInt("citizen.server.gzip.inflate-buffer-size", 8192));
+        gzip.setDeflaterPool(new DeflaterPool(CompressionPool.DEFAULT_CAPACITY,
+                AppConfig.getInt("citizen.server.gzip.level", Deflater.DEFAULT_COMPRESSION), true));
+        return gzip;
+    }
+    
+    /**
+     * Jetty's thread pool. With citizen.server.virtual-threads=true every request, and
+     * Jersey with it, runs on its own virtual thread; the pool's platform threads are
+     * then only used for Jetty's selectors and housekeeping. Requests blocked on the
+     * database park cheaply instead of holding a pool thread.
+     */
+    private static QueuedThreadPool createThreadPool() {
+        QueuedThreadPool threadPool = new QueuedThreadPool(AppConfig.getInt("citizen.server.max-threads", 200));
+        threadPool.setName("citizen-http");
+        if (AppConfig.getBoolean("citizen.server.virtual-threads", false)) {
+            threadPool.setVirtualThreadsExecutor(
+                    Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("citizen-request-", 0).factory()));
         }
+        return threadPool;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,32 @@
+package com.example;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Answers 200 once the database is open and warmed up and the server takes requests,
+ * 503 before that and again once shutdown has begun, so a load balancer or an
+ * orchestrator only sends traffic while requests can be served
+ */
+public class ReadinessServlet extends HttpServlet {
+
+    private static volatile boolean ready;
+
+    static void setReady(boolean value) {
+        ready = value;
+    }
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(ready ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setContentType("text/plain");
+        response.setHeader("Cache-Control", "no-store");
+        response.getWriter().write(ready ? "ready" : "not ready");
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.dao;
+
+import com.example.entity.CitizenChange;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring of the newest change log entries, for backends that keep their change log in
+ * memory. Sequence numbers are consecutive; a follower asking for entries older than
+ * the ring holds gets a RESET first. Not thread-safe.
+ */
+final class ChangeHistory {
+
+    private final CitizenChange[] ring;
+    private int start;
+    private int size;
+    private long lastSeq;
+
+    /**
+     * An empty history continuing after lastSeq
+     */
+    ChangeHistory(int capacity, long lastSeq) {
+        this.ring = new CitizenChange[Math.max(1, capacity)];
+        this.lastSeq = lastSeq;
+    }
+
+    long lastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Append the entry following lastSeq, dropping the oldest when full
+     */
+    void add(CitizenChange change) {
+        if (size < ring.length) {
+            ring[(start + size++) % ring.length] = change;
+        } else {
+            ring[start] = change;
+            start = (start + 1) % ring.length;
+        }
+        lastSeq = change.getSeq();
+    }
+
+    List<CitizenChange> after(long seq, int limit) {
+        List<CitizenChange> changes = new ArrayList<>(Math.min(limit, size + 1));
+        long firstKept = size == 0 ? lastSeq + 1 : at(0).getSeq();
+        long after = seq;
+        if (after < firstKept - 1 && limit > 0) {
+            changes.add(new CitizenChange(firstKept - 1, CitizenChange.Type.RESET,
+                null, null, null, null, System.currentTimeMillis()));
+            after = firstKept - 1;
+        }
+        for (long next = Math.max(after + 1, firstKept); next <= lastSeq && changes.size() < limit; next++) {
+            changes.add(at((int) (next - firstKept)));
+        }
+        return changes;
+    }
+
+    private CitizenChange at(int index) {
+        return ring[(start + index) % ring.length];
+    }
+}
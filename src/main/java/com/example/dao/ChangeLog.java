@@ -0,0 +1,76 @@
+package com.example.dao;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Append-only log of changes to the citizens table, see CitizenChange.
+ *
+ * Triggers write an entry for every insert, update and delete inside the same
+ * transaction as the write, whichever path it takes: a save, a group commit or a
+ * bulk load. AUTOINCREMENT keeps sequence numbers growing, and SQLite's single
+ * writer makes them commit order. A reader that has seen seq N has seen every
+ * change up to N.
+ */
+final class ChangeLog {
+
+    // Epoch milliseconds; julianday keeps it to the precision of the clock
+    static final String NOW = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    static final String[] DDL = {
+        "CREATE TABLE IF NOT EXISTS citizen_changes ("
+            + "seq INTEGER PRIMARY KEY AUTOINCREMENT, type TEXT NOT NULL, citizen_id INTEGER, "
+            + "name TEXT, surname TEXT, version INTEGER, changed_at INTEGER NOT NULL)",
+        "CREATE TRIGGER IF NOT EXISTS citizen_changes_ai AFTER INSERT ON citizens BEGIN "
+            + "INSERT INTO citizen_changes(type, citizen_id, name, surname, version, changed_at) "
+            + "VALUES ('CREATED', new.id, new.name, new.surname, new.version, " + NOW + "); "
+            + "END",
+        "CREATE TRIGGER IF NOT EXISTS citizen_changes_au AFTER UPDATE ON citizens BEGIN "
+            + "INSERT INTO citizen_changes(type, citizen_id, name, surname, version, changed_at) "
+            + "VALUES ('UPDATED', new.id, new.name, new.surname, new.version, " + NOW + "); "
+            + "END",
+        "CREATE TRIGGER IF NOT EXISTS citizen_changes_ad AFTER DELETE ON citizens BEGIN "
+            + "INSERT INTO citizen_changes(type, citizen_id, changed_at) "
+            + "VALUES ('DELETED', old.id, " + NOW + "); "
+            + "END"
+    };
+
+    static final String SELECT_AFTER =
+        "SELECT seq, type, citizen_id, name, surname, version, changed_at FROM citizen_changes "
+            + "WHERE seq > :after ORDER BY seq LIMIT :limit";
+    static final String SELECT_LATEST = "SELECT COALESCE(MAX(seq), 0) FROM citizen_changes";
+
+    private ChangeLog() {}
+
+    /**
+     * Create the log and its triggers for a boot that recreated the citizens table,
+     * otherwise SchemaMigrations installs them once. The old entries no longer describe
+     * the table: they are replaced by a single RESET entry that continues their
+     * numbering, so followers know to start over.
+     */
+    static void install(EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (String statement : DDL) {
+                em.createNativeQuery(statement).executeUpdate();
+            }
+            long latest = ((Number) em.createNativeQuery(SELECT_LATEST).getSingleResult()).longValue();
+            em.createNativeQuery("DELETE FROM citizen_changes").executeUpdate();
+            if (latest > 0) {
+                em.createNativeQuery("INSERT INTO citizen_changes(seq, type, changed_at) "
+                        + "VALUES (:seq, 'RESET', " + NOW + ")")
+                    .setParameter("seq", latest + 1)
+                    .executeUpdate();
+            }
+            em.getTransaction().commit();
+        } catch (RuntimeException e) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            throw new IllegalStateException("Could not install the change log", e);
+        } finally {
+            em.close();
+        }
+    }
+}
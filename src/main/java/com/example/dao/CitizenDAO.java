@@ -1,94 +1,151 @@
 package com.example.dao;
 
 import com.example.entity.Citizen;
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.EntityManagerFactory;
-import jakarta.persistence.Persistence;
-import jakarta.persistence.TypedQuery;
+import com.example.entity.CitizenChange;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
-public class CitizenDAO {
-    
-    private static final String PERSISTENCE_UNIT_NAME = "citizenPU";
-    private static EntityManagerFactory emf;
-    
-    static {
-        emf = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT_NAME);
-    }
-    
-    public Citizen save(Citizen citizen) {
-        EntityManager em = emf.createEntityManager();
-        try {
-            em.getTransaction().begin();
-            if (citizen.getId() == null) {
-                em.persist(citizen);
-            } else {
-                citizen = em.merge(citizen);
-            }
-            em.getTransaction().commit();
-            return citizen;
-        } catch (Exception e) {
-            em.getTransaction().rollback();
-            throw new RuntimeException("Error saving citizen", e);
-        } finally {
-            em.close();
-        }
-    }
-    
-    public Citizen findById(Long id) {
-        EntityManager em = emf.createEntityManager();
-        try {
-            return em.find(Citizen.class, id);
-        } finally {
-            em.close();
-        }
-    }
-    
-    public List<Citizen> findAll() {
-        EntityManager em = emf.createEntityManager();
-        try {
-            TypedQuery<Citizen> query = em.createQuery("SELECT c FROM Citizen c", Citizen.class);
-            return query.getResultList();
-        } finally {
-            em.close();
-        }
-    }
-    
-    public List<Citizen> findByName(String name) {
-        EntityManager em = emf.createEntityManager();
-        try {
-            TypedQuery<Citizen> query = em.createQuery(
-                "SELECT c FROM Citizen c WHERE c.name LIKE :name", Citizen.class);
-            query.setParameter("name", "%" + name + "%");
-            return query.getResultList();
-        } finally {
-            em.close();
-        }
-    }
-    
-    public boolean delete(Long id) {
-        EntityManager em = emf.createEntityManager();
-        try {
-            em.getTransaction().begin();
-            Citizen citizen = em.find(Citizen.class, id);
-            if (citizen != null) {
-                em.remove(citizen);
-                em.getTransaction().commit();
-                return true;
-            }
-            em.getTransaction().rollback();
-            return false;
-        } catch (Exception e) {
-            em.getTransaction().rollback();
-            throw new RuntimeException("Error deleting citizen", e);
-        } finally {
-            em.close();
-        }
+/**
+ * Storage of the citizen registry.
+ *
+ * Three backends implement it: HibernateCitizenDAO on a SQLite file,
+ * ShardedCitizenDAO on several of them, and InMemoryCitizenDAO, which serves
+ * everything from memory and persists a write-ahead log and snapshots.
+ * citizen.db.backend picks one at startup, see {@link #configured()}.
+ *
+ * Name lookups ignore case and extra whitespace. Citizens handed out are copies:
+ * changing one has no effect until it is saved.
+ */
+public interface CitizenDAO {
+
+    /**
+     * The backend selected with citizen.db.backend: "sqlite" (default), "sharded" or "memory".
+     * Created on first use and shared by every caller.
+     */
+    static CitizenDAO configured() {
+        return DaoBackend.INSTANCE;
     }
-    
-    public static void closeEntityManagerFactory() {
-        if (emf != null && emf.isOpen()) {
-            emf.close();
+
+    /**
+     * Insert a citizen without an id, or update the one with its id. An update carrying
+     * a version only succeeds if the stored citizen still has that version, otherwise
+     * CitizenVersionConflictException; without a version it overwrites. A second citizen
+     * with the same name and surname is rejected with DuplicateCitizenException.
+     */
+    Citizen save(Citizen citizen);
+
+    /**
+     * Insert new citizens all together: if one is rejected, none is stored
+     */
+    List<Citizen> saveAll(List<Citizen> citizens);
+
+    Citizen findById(Long id);
+
+    /**
+     * Citizens with the given ids in the order the ids are listed; ids that are not
+     * registered are left out, repeated ids give the citizen once
+     */
+    List<Citizen> findByIds(Collection<Long> ids);
+
+    List<Citizen> findAll();
+
+    /**
+     * Whether a citizen with this name and surname is registered.
+     * When excludeId is given that citizen does not count as a duplicate.
+     */
+    boolean existsByFullName(String name, String surname, Long excludeId);
+
+    /**
+     * Citizens with exactly this name and surname
+     */
+    List<Citizen> findByFullName(String name, String surname);
+
+    /**
+     * Citizens with exactly this surname, ordered by id
+     */
+    List<Citizen> findBySurname(String surname);
+
+    /**
+     * Citizens whose surname starts with the prefix, ordered by surname and id
+     */
+    List<Citizen> findBySurnamePrefix(String prefix);
+
+    long count();
+
+    /**
+     * Whether at least one citizen is registered
+     */
+    boolean existsAny();
+
+    /**
+     * Keyset page of citizens ordered by id, starting after the given id
+     */
+    List<Citizen> findPage(Long afterId, int limit);
+
+    /**
+     * Stream every citizen in id order to the consumer, reading fetchSize at a time.
+     * Returns the number of citizens streamed.
+     */
+    long streamAll(int fetchSize, Consumer<Citizen> consumer);
+
+    /**
+     * Citizens whose name contains the given text
+     */
+    List<Citizen> findByName(String name);
+
+    /**
+     * Substring search over name and surname: every term of the text must appear in
+     * one of them. Best matches first, at most limit.
+     */
+    List<Citizen> search(String text, int limit);
+
+    /**
+     * Search for names as heard or misspelled: every word of the text must sound like,
+     * or be a few letters away from, a word of the name or surname. Closest matches
+     * first, at most limit.
+     */
+    List<Citizen> fuzzySearch(String text, int limit);
+
+    /**
+     * Change log entries after the given sequence number, oldest first, at most limit.
+     * When entries that far back are no longer kept, the first entry is a RESET.
+     */
+    List<CitizenChange> findChangesAfter(long seq, int limit);
+
+    /**
+     * Sequence number of the newest change log entry, 0 while the log is empty
+     */
+    long latestChangeSeq();
+
+    boolean delete(Long id);
+
+    /**
+     * Run every kind of lookup once, so the first requests do not pay for compiling
+     * queries and opening connections. Called before the server takes requests.
+     */
+    default void warmUp() {
+        List<Citizen> first = findPage(null, 1);
+        String name = first.isEmpty() ? "Warm" : first.get(0).getName();
+        String surname = first.isEmpty() ? "Up" : first.get(0).getSurname();
+        if (!first.isEmpty()) {
+            findById(first.get(0).getId());
+            findByIds(List.of(first.get(0).getId()));
         }
+        count();
+        existsAny();
+        existsByFullName(name, surname, null);
+        findByFullName(name, surname);
+        findBySurname(surname);
+        findBySurnamePrefix(surname);
+        findByName(name);
+        search(surname, 1);
+        fuzzySearch(name + " " + surname, 1);
+        findChangesAfter(latestChangeSeq(), 1);
     }
-}
\ No newline at end of file
+
+    /**
+     * Finish pending writes and release the storage. Called once, at shutdown.
+     */
+    void close();
+}
@@ -0,0 +1,54 @@
+package com.example.dao;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Highest citizen id ever handed out by a registry file, so an id is never reused.
+ *
+ * CitizenIdGenerator seeds itself from MAX(id) of the citizens table, which forgets
+ * a deleted citizen that had the highest id; the next boot would hand the id out
+ * again, and with it the ETag of the deleted citizen. A trigger keeps the highest
+ * deleted id in citizen_ids inside the same transaction as the delete, and the
+ * generator starts above whichever of the two is higher.
+ */
+final class CitizenIds {
+
+    static final String[] DDL = {
+        "CREATE TABLE IF NOT EXISTS citizen_ids ("
+            + "id INTEGER PRIMARY KEY CHECK (id = 0), high_water INTEGER NOT NULL)",
+        // Deletes logged before the table existed count too
+        "INSERT OR IGNORE INTO citizen_ids(id, high_water) SELECT 0, MAX("
+            + "(SELECT COALESCE(MAX(id), 0) FROM citizens), "
+            + "(SELECT COALESCE(MAX(citizen_id), 0) FROM citizen_changes))",
+        "CREATE TRIGGER IF NOT EXISTS citizen_ids_ad AFTER DELETE ON citizens "
+            + "WHEN old.id > (SELECT high_water FROM citizen_ids) BEGIN "
+            + "UPDATE citizen_ids SET high_water = old.id; "
+            + "END"
+    };
+
+    private CitizenIds() {}
+
+    /**
+     * Create the table and its trigger for boots that recreate the citizens table,
+     * after the change log; otherwise SchemaMigrations installs them once. A table
+     * left from before the boot is kept, so ids keep growing across it.
+     */
+    static void install(EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (String statement : DDL) {
+                em.createNativeQuery(statement).executeUpdate();
+            }
+            em.getTransaction().commit();
+        } catch (RuntimeException e) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            throw new IllegalStateException("Could not install the citizen id table", e);
+        } finally {
+            em.close();
+        }
+    }
+}
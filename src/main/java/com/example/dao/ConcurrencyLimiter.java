@@ -0,0 +1,68 @@
+package com.example.dao;
+
+import com.example.metrics.Metrics;
+import io.micrometer.core.instrument.Gauge;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of callers inside JDBC at once.
+ *
+ * With virtual threads neither Jetty nor RequestExecutors has a thread pool left to
+ * bound concurrency, so thousands of requests can reach the database together.
+ * sqlite-jdbc holds monitors during native calls, which pins the carrier thread;
+ * letting more callers in than there are carriers starves every other virtual
+ * thread. Callers over the limit park on a fair semaphore, which does not pin, and
+ * give up after the configured wait.
+ *
+ * A DAO keeps one for reads and one for writes, so writers queueing for the single
+ * write connection never hold the permits that reads need.
+ */
+final class ConcurrencyLimiter {
+
+    private final Semaphore permits;
+    private final long maxWaitMs;
+
+    /**
+     * @param name tags the gauges, the same as the entityManagerFactory tag of the Hibernate metrics
+     * @param access tags the gauges too, read or write
+     * @param maxConcurrency callers allowed in at once, 0 or less for no limit
+     */
+    ConcurrencyLimiter(String name, String access, int maxConcurrency, long maxWaitMs) {
+        this.permits = maxConcurrency > 0 ? new Semaphore(maxConcurrency, true) : null;
+        this.maxWaitMs = maxWaitMs;
+        if (permits != null) {
+            Gauge.builder("citizen.db.limiter.waiting", permits, Semaphore::getQueueLength)
+                    .description("Callers waiting for a database permit")
+                    .tag("entityManagerFactory", name)
+                    .tag("access", access)
+                    .register(Metrics.REGISTRY);
+            Gauge.builder("citizen.db.limiter.in.use", permits, p -> maxConcurrency - p.availablePermits())
+                    .description("Callers holding a database permit")
+                    .tag("entityManagerFactory", name)
+                    .tag("access", access)
+                    .register(Metrics.REGISTRY);
+        }
+    }
+
+    <T> T run(Supplier<T> work) {
+        if (permits == null) {
+            return work.get();
+        }
+        try {
+            if (!permits.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+                throw new RejectedExecutionException("Too many concurrent database requests");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted waiting for the database", e);
+        }
+        try {
+            return work.get();
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.dao;
+
+import com.example.config.AppConfig;
+import java.nio.file.Path;
+
+/**
+ * Holder of the CitizenDAO picked with citizen.db.backend, created when first asked for
+ */
+final class DaoBackend {
+
+    static final CitizenDAO INSTANCE = create(AppConfig.getString("citizen.db.backend", "sqlite"));
+
+    private DaoBackend() {}
+
+    private static CitizenDAO create(String backend) {
+        switch (backend) {
+            case "sqlite":
+                return new HibernateCitizenDAO();
+            case "memory":
+                return new InMemoryCitizenDAO(
+                    Path.of(AppConfig.getString("citizen.memory.dir", "citizens-data")),
+                    AppConfig.getBoolean("citizen.memory.fsync", true),
+                    AppConfig.getLong("citizen.memory.snapshot-after-bytes", 64L * 1024 * 1024),
+                    AppConfig.getInt("citizen.memory.change-history", 100000));
+            case "sharded":
+                int shards = AppConfig.getInt("citizen.db.shards", 4);
+                return new ShardedCitizenDAO(shards,
+                    AppConfig.getInt("citizen.db.scatter-threads", shards * Runtime.getRuntime().availableProcessors()),
+                    AppConfig.getInt("citizen.db.change-history", 100000));
+            default:
+                throw new IllegalStateException(
+                    "Unknown citizen.db.backend: " + backend + ", expected sqlite, sharded or memory");
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.dao;
+
+import com.example.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.EntityManager;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the persistence layer: call latency per DAO operation, rows read and
+ * written, commit latency and the size of group commits.
+ */
+final class DaoMetrics {
+
+    static final Counter ROWS_READ = Metrics.counter("citizen.dao.rows.read");
+    static final Counter ROWS_WRITTEN = Metrics.counter("citizen.dao.rows.written");
+    static final DistributionSummary GROUP_SIZE = DistributionSummary.builder("citizen.db.commit.group.size")
+            .publishPercentileHistogram()
+            .maximumExpectedValue(1024.0)
+            .register(Metrics.REGISTRY);
+
+    private static final Map<String, Timer> CALLS = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> COMMITS = new ConcurrentHashMap<>();
+
+    private DaoMetrics() {}
+
+    static void recordCall(String operation, long startNanos) {
+        CALLS.computeIfAbsent(operation, name -> Metrics.timer("citizen.dao.calls", "operation", name))
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Commit the current transaction, timed into citizen.db.commit by mode
+     */
+    static void commit(EntityManager em, String mode) {
+        long start = System.nanoTime();
+        try {
+            em.getTransaction().commit();
+        } finally {
+            recordCommit(mode, start);
+        }
+    }
+
+    static void recordCommit(String mode, long startNanos) {
+        COMMITS.computeIfAbsent(mode, name -> Metrics.timer("citizen.db.commit", "mode", name))
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
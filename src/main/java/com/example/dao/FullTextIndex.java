@@ -0,0 +1,112 @@
+package com.example.dao;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * SQLite FTS5 index over citizen names and surnames.
+ *
+ * citizens_fts is an external-content table using the trigram tokenizer, so any
+ * substring of three or more characters is an index lookup. Triggers keep it in
+ * step with the citizens table inside the same transaction as the write.
+ */
+final class FullTextIndex {
+
+    /** Trigram tokens are three characters, shorter terms cannot use the index */
+    static final int MIN_TERM_LENGTH = 3;
+
+    static final String[] DDL = {
+        "CREATE VIRTUAL TABLE IF NOT EXISTS citizens_fts USING fts5("
+            + "name, surname, content='citizens', content_rowid='id', tokenize='trigram')",
+        "CREATE TRIGGER IF NOT EXISTS citizens_fts_ai AFTER INSERT ON citizens BEGIN "
+            + "INSERT INTO citizens_fts(rowid, name, surname) VALUES (new.id, new.name, new.surname); "
+            + "END",
+        "CREATE TRIGGER IF NOT EXISTS citizens_fts_ad AFTER DELETE ON citizens BEGIN "
+            + "INSERT INTO citizens_fts(citizens_fts, rowid, name, surname) "
+            + "VALUES ('delete', old.id, old.name, old.surname); "
+            + "END",
+        "CREATE TRIGGER IF NOT EXISTS citizens_fts_au AFTER UPDATE OF name, surname ON citizens BEGIN "
+            + "INSERT INTO citizens_fts(citizens_fts, rowid, name, surname) "
+            + "VALUES ('delete', old.id, old.name, old.surname); "
+            + "INSERT INTO citizens_fts(rowid, name, surname) VALUES (new.id, new.name, new.surname); "
+            + "END"
+    };
+    // Fills the index from whatever the citizens table holds
+    static final String REBUILD = "INSERT INTO citizens_fts(citizens_fts) VALUES ('rebuild')";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private FullTextIndex() {}
+
+    /**
+     * Create the index and fill it, for boots that recreate the citizens table;
+     * otherwise SchemaMigrations installs it once
+     */
+    static void install(EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (String statement : DDL) {
+                em.createNativeQuery(statement).executeUpdate();
+            }
+            em.createNativeQuery(REBUILD).executeUpdate();
+            em.getTransaction().commit();
+        } catch (RuntimeException e) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            throw new IllegalStateException("Could not install the full-text index", e);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * FTS5 query matching the text as one substring of the given column,
+     * or null when it is too short for the trigram index
+     */
+    static String phrase(String text, String column) {
+        if (text.codePointCount(0, text.length()) < MIN_TERM_LENGTH) {
+            return null;
+        }
+        return column + " : " + quote(text);
+    }
+
+    /**
+     * FTS5 query requiring every whitespace-separated term of the text in any
+     * column. Terms too short for the trigram index are left out, callers match
+     * them with {@link #shortTerms}; returns null when none is left.
+     */
+    static String allTerms(String text) {
+        List<String> terms = new ArrayList<>();
+        for (String term : WHITESPACE.split(text.trim())) {
+            if (term.codePointCount(0, term.length()) >= MIN_TERM_LENGTH) {
+                terms.add(quote(term));
+            }
+        }
+        return terms.isEmpty() ? null : String.join(" AND ", terms);
+    }
+
+    /**
+     * Terms of the text too short for the trigram index, in lower case like the
+     * name and surname keys
+     */
+    static List<String> shortTerms(String text) {
+        List<String> terms = new ArrayList<>();
+        for (String term : WHITESPACE.split(text.trim())) {
+            if (!term.isEmpty() && term.codePointCount(0, term.length()) < MIN_TERM_LENGTH) {
+                terms.add(term.toLowerCase(Locale.ROOT));
+            }
+        }
+        return terms;
+    }
+
+    // Quoted strings are taken literally, so FTS5 operators in user input do nothing
+    private static String quote(String text) {
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index for fuzzy name search, kept up to date by the DAO on every save and
+ * delete.
+ *
+ * Indexes the distinct words of names and surnames rather than the citizens, as far fewer
+ * words than citizens exist. Each word is filed under its trigrams and its phonetic key
+ * (see PhoneticKeys); each word knows the citizens using it. A query term collects the
+ * words sharing enough trigrams with it or sounding alike, and keeps those within a small
+ * edit distance, or sounding alike within a larger one. Citizens matching every term
+ * are then ranked by how closely they matched.
+ */
+final class FuzzyNameIndex {
+
+    private static final double EXACT = 1.0;
+    private static final double PER_EDIT = 0.15;
+    private static final double SAME_SOUND = 0.1;
+    private static final double SOUND_ONLY = 0.5;
+    // Sounding alike excuses this many edits beyond the usual limit
+    private static final int SOUND_SLACK = 2;
+    // Trigrams filed under more words than this are too common to find candidates by
+    private static final int COMMON_GRAM = 2000;
+
+    private static final class Word {
+        final String text;
+        final String sound;
+        final IdSet citizens = new IdSet();
+
+        Word(String text) {
+            this.text = text;
+            this.sound = PhoneticKeys.metaphone(text);
+        }
+    }
+
+    // What the index holds for one citizen, to undo it on update and delete
+    private static final class Indexed {
+        final long version;
+        final Word[] words;
+
+        Indexed(long version, Word[] words) {
+            this.version = version;
+            this.words = words;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Word> words = new HashMap<>();
+    private final Map<String, List<Word>> byTrigram = new HashMap<>();
+    private final Map<String, List<Word>> bySound = new HashMap<>();
+    private final LongObjectMap<Indexed> citizens = new LongObjectMap<>();
+
+    /**
+     * Index a citizen, replacing what was indexed for it. An older version than the
+     * one indexed is ignored, so concurrent updates may arrive in any order.
+     */
+    void put(long id, long version, String name, String surname) {
+        Set<String> texts = new HashSet<>(PhoneticKeys.words(name));
+        texts.addAll(PhoneticKeys.words(surname));
+        lock.writeLock().lock();
+        try {
+            Indexed existing = citizens.get(id);
+            if (existing != null) {
+                if (existing.version > version) {
+                    return;
+                }
+                unlink(id, existing);
+            }
+            Word[] linked = new Word[texts.size()];
+            int i = 0;
+            for (String text : texts) {
+                Word word = words.get(text);
+                if (word == null) {
+                    word = new Word(text);
+                    words.put(text, word);
+                    for (String trigram : trigrams(text)) {
+                        byTrigram.computeIfAbsent(trigram, key -> new ArrayList<>(2)).add(word);
+                    }
+                    bySound.computeIfAbsent(word.sound, key -> new ArrayList<>(2)).add(word);
+                }
+                word.citizens.add(id);
+                linked[i++] = word;
+            }
+            citizens.put(id, new Indexed(version, linked));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Indexed existing = citizens.remove(id);
+            if (existing != null) {
+                unlink(id, existing);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return citizens.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of the citizens matching every word of the text, best first, at most limit.
+     * Ties go to the shorter name, then to the lower id.
+     */
+    List<Long> search(String text, int limit) {
+        List<Long> ids = new ArrayList<>();
+        for (Hit hit : rank(text, limit)) {
+            ids.add(hit.id);
+        }
+        return ids;
+    }
+
+    /**
+     * The matches of {@link #search} with their ranking, so results of several indexes
+     * can be merged: sorting hits in reverse natural order puts the best first
+     */
+    List<Hit> rank(String text, int limit) {
+        List<String> terms = PhoneticKeys.words(text);
+        List<Hit> hits = new ArrayList<>();
+        if (terms.isEmpty() || limit <= 0) {
+            return hits;
+        }
+        lock.readLock().lock();
+        try {
+            List<Map<Word, Double>> matches = new ArrayList<>(terms.size());
+            Map<Word, Double> narrowest = null;
+            long narrowestCitizens = Long.MAX_VALUE;
+            for (String term : terms) {
+                Map<Word, Double> termMatches = matchingWords(term);
+                if (termMatches.isEmpty()) {
+                    return hits;
+                }
+                matches.add(termMatches);
+                long count = 0;
+                for (Word word : termMatches.keySet()) {
+                    count += word.citizens.size();
+                }
+                if (count < narrowestCitizens) {
+                    narrowest = termMatches;
+                    narrowestCitizens = count;
+                }
+            }
+            // Candidates come from the term with the fewest citizens, the other terms only score them
+            PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1);
+            Set<Long> seen = new HashSet<>();
+            for (Word word : narrowest.keySet()) {
+                for (int i = 0; i < word.citizens.size(); i++) {
+                    long id = word.citizens.get(i);
+                    if (!seen.add(id)) {
+                        continue;
+                    }
+                    Hit hit = score(id, citizens.get(id).words, matches);
+                    if (hit != null) {
+                        best.add(hit);
+                        if (best.size() > limit) {
+                            best.poll();
+                        }
+                    }
+                }
+            }
+            while (!best.isEmpty()) {
+                hits.add(best.poll());
+            }
+            Collections.reverse(hits);
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Ordered worst first, the head of the queue is the one to drop
+    static final class Hit implements Comparable<Hit> {
+        final long id;
+        final double score;
+        final int length;
+
+        Hit(long id, double score, int length) {
+            this.id = id;
+            this.score = score;
+            this.length = length;
+        }
+
+        @Override
+        public int compareTo(Hit other) {
+            if (score != other.score) {
+                return Double.compare(score, other.score);
+            }
+            if (length != other.length) {
+                return Integer.compare(other.length, length);
+            }
+            return Long.compare(other.id, id);
+        }
+    }
+
+    private static Hit score(long id, Word[] words, List<Map<Word, Double>> matches) {
+        double total = 0;
+        for (Map<Word, Double> termMatches : matches) {
+            double best = 0;
+            for (Word word : words) {
+                Double score = termMatches.get(word);
+                if (score != null && score > best) {
+                    best = score;
+                }
+            }
+            if (best == 0) {
+                return null;
+            }
+            total += best;
+        }
+        int length = 0;
+        for (Word word : words) {
+            length += word.text.length();
+        }
+        return new Hit(id, total, length);
+    }
+
+    /**
+     * Indexed words close to the term, with how close they are
+     */
+    private Map<Word, Double> matchingWords(String term) {
+        Map<Word, Double> matches = new HashMap<>();
+        int maxEdits = maxEdits(term.length());
+        String sound = PhoneticKeys.metaphone(term);
+        // Common trigrams are skipped: a word sharing only those with the term is far from it
+        // anyway, and counting them would visit a large part of the vocabulary
+        int skipped = 0;
+        Map<Word, Integer> shared = new HashMap<>();
+        for (String trigram : trigrams(term)) {
+            List<Word> candidates = byTrigram.get(trigram);
+            if (candidates == null) {
+                continue;
+            }
+            if (candidates.size() > COMMON_GRAM) {
+                skipped++;
+                continue;
+            }
+            for (Word word : candidates) {
+                shared.merge(word, 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<Word, Integer> candidate : shared.entrySet()) {
+            Word word = candidate.getKey();
+            // An edit changes at most three padded trigrams, a swap of two letters four
+            int longer = Math.max(term.length(), word.text.length());
+            if (candidate.getValue() >= longer + 2 - 4 * maxEdits - skipped) {
+                rate(term, sound, word, maxEdits, matches);
+            }
+        }
+        List<Word> soundAlike = bySound.get(sound);
+        if (soundAlike != null) {
+            for (Word word : soundAlike) {
+                rate(term, sound, word, maxEdits, matches);
+            }
+        }
+        return matches;
+    }
+
+    private static void rate(String term, String sound, Word word, int maxEdits, Map<Word, Double> matches) {
+        if (matches.containsKey(word)) {
+            return;
+        }
+        boolean sameSound = word.sound.equals(sound);
+        int edits = editDistance(term, word.text, sameSound ? maxEdits + SOUND_SLACK : maxEdits);
+        if (edits == 0) {
+            matches.put(word, EXACT);
+        } else if (edits <= maxEdits) {
+            matches.put(word, EXACT - PER_EDIT * edits + (sameSound ? SAME_SOUND : 0));
+        } else if (sameSound && edits <= maxEdits + SOUND_SLACK) {
+            matches.put(word, SOUND_ONLY);
+        }
+    }
+
+    private static int maxEdits(int length) {
+        return length <= 4 ? 1 : 2;
+    }
+
+    /**
+     * Trigrams of the word padded with two markers on each side, so short words and
+     * word boundaries get trigrams too
+     */
+    static List<String> trigrams(String word) {
+        String padded = "^^" + word + "$$";
+        List<String> trigrams = new ArrayList<>(padded.length() - 2);
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Edit distance counting a swap of neighbouring letters as one edit, or max + 1 as
+     * soon as it is known to exceed max
+     */
+    static int editDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] twoBack = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int distance = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    distance = Math.min(distance, twoBack[j - 2] + 1);
+                }
+                current[j] = distance;
+                rowMin = Math.min(rowMin, distance);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] recycled = twoBack;
+            twoBack = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    private void unlink(long id, Indexed indexed) {
+        for (Word word : indexed.words) {
+            if (word.citizens.remove(id) && word.citizens.size() == 0) {
+                words.remove(word.text);
+                for (String trigram : trigrams(word.text)) {
+                    detach(byTrigram, trigram, word);
+                }
+                detach(bySound, word.sound, word);
+            }
+        }
+    }
+
+    private static void detach(Map<String, List<Word>> index, String key, Word word) {
+        List<Word> filed = index.get(key);
+        if (filed != null) {
+            filed.remove(word);
+            if (filed.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.dao;
+
+import com.example.metrics.Metrics;
+import io.micrometer.core.instrument.Gauge;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Single writer thread that commits queued mutations in groups.
+ *
+ * Callers enqueue a unit of work and wait on its future. The writer takes whatever
+ * is queued, waiting at most maxWaitMicros for more, up to maxGroupSize operations,
+ * and runs them in one transaction: one lock acquisition and one commit (and fsync)
+ * for the whole group instead of one per caller. If the group fails, every operation
+ * is replayed in its own transaction so only the failing ones see an error.
+ */
+class GroupCommitWriter {
+
+    private static final long POLL_INTERVAL_MS = 100;
+
+    private final EntityManagerFactory emf;
+    private final BlockingQueue<PendingWrite<?>> queue;
+    private final int maxGroupSize;
+    private final long maxWaitNanos;
+    private final long enqueueTimeoutMs;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    GroupCommitWriter(EntityManagerFactory emf, int queueCapacity, int maxGroupSize,
+                      long maxWaitMicros, long enqueueTimeoutMs) {
+        this.emf = emf;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxGroupSize = maxGroupSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.enqueueTimeoutMs = enqueueTimeoutMs;
+        this.thread = new Thread(this::run, "citizen-group-commit");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        Gauge.builder("citizen.db.commit.queue.depth", queue, BlockingQueue::size).register(Metrics.REGISTRY);
+    }
+
+    /**
+     * Queue a unit of work. The function runs inside a transaction shared with other
+     * queued work, so it must not begin, commit or clear anything itself.
+     */
+    <T> CompletableFuture<T> submit(Function<EntityManager, T> work) {
+        PendingWrite<T> write = new PendingWrite<>(work);
+        boolean queued;
+        try {
+            queued = running && queue.offer(write, enqueueTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        if (!queued) {
+            throw new RejectedExecutionException("Write queue is full");
+        }
+        return write.future;
+    }
+
+    /**
+     * Stop accepting work, commit what is already queued and wait for the writer to finish
+     */
+    void shutdown() {
+        running = false;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingWrite<?>> group = new ArrayList<>(maxGroupSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite<?> first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                collectGroup(group);
+                commitGroup(group);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                // Never let the writer thread die, fail the group instead
+                for (PendingWrite<?> write : group) {
+                    write.future.completeExceptionally(e);
+                }
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private void collectGroup(List<PendingWrite<?>> group) throws InterruptedException {
+        queue.drainTo(group, maxGroupSize - group.size());
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (group.size() < maxGroupSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            PendingWrite<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            group.add(next);
+            queue.drainTo(group, maxGroupSize - group.size());
+        }
+    }
+
+    private void commitGroup(List<PendingWrite<?>> group) {
+        List<Object> results = new ArrayList<>(group.size());
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (PendingWrite<?> write : group) {
+                results.add(write.work.apply(em));
+            }
+            DaoMetrics.commit(em, "group");
+            DaoMetrics.GROUP_SIZE.record(group.size());
+        } catch (RuntimeException e) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+            if (group.size() == 1) {
+                group.get(0).future.completeExceptionally(e);
+            } else {
+                group.forEach(this::commitAlone);
+            }
+            return;
+        } finally {
+            if (em.isOpen()) {
+                em.close();
+            }
+        }
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).complete(results.get(i));
+        }
+    }
+
+    private void commitAlone(PendingWrite<?> write) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Object result = write.work.apply(em);
+            DaoMetrics.commit(em, "group");
+            write.complete(result);
+        } catch (RuntimeException e) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            write.future.completeExceptionally(e);
+        } finally {
+            em.close();
+        }
+    }
+
+    private static class PendingWrite<T> {
+        final Function<EntityManager, T> work;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        PendingWrite(Function<EntityManager, T> work) {
+            this.work = work;
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(Object result) {
+            future.complete((T) result);
+        }
+    }
+}
@@ -0,0 +1,728 @@
+package com.example.dao;
+
+import com.example.config.AppConfig;
+import com.example.entity.Citizen;
+import com.example.entity.CitizenChange;
+import com.example.exception.CitizenVersionConflictException;
+import com.example.exception.DuplicateCitizenException;
+import com.example.metrics.Metrics;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.OptimisticLockException;
+import jakarta.persistence.Persistence;
+import jakarta.persistence.Query;
+import jakarta.persistence.TypedQuery;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StaleStateException;
+import org.hibernate.jpa.HibernateHints;
+import org.hibernate.stat.HibernateMetrics;
+import org.hibernate.stat.Statistics;
+import org.sqlite.SQLiteErrorCode;
+import org.sqlite.SQLiteException;
+
+/**
+ * CitizenDAO on a SQLite file through Hibernate, with a second-level cache in front
+ * of it and a pool of read-only connections next to the single writer.
+ */
+public class HibernateCitizenDAO implements CitizenDAO {
+    
+    private static final String PERSISTENCE_UNIT_NAME = "citizenPU";
+    private static final String DUPLICATE_MESSAGE =
+        "A citizen with the same name and surname already exists";
+    // Keep in step with hibernate.jdbc.batch_size in persistence.xml
+    private static final int BATCH_SIZE = 100;
+    // Ids bound per IN query of findByIds, well below SQLite's limit of 32766 parameters
+    private static final int MULTI_LOAD_CHUNK = 500;
+    private static final String CACHE_STORE_MODE = "jakarta.persistence.cache.storeMode";
+    // Keep in step with hibernate.javax.cache.uri in persistence.xml
+    private static final String CACHE_CONFIG = "citizen-cache.conf";
+    private static final String CACHE_MANAGER = "hibernate.javax.cache.cache_manager";
+    private static volatile Store shared;
+    private final Store store;
+    
+    /**
+     * Everything a DAO keeps per database file
+     */
+    private static final class Store {
+        final EntityManagerFactory emf;
+        final GroupCommitWriter groupCommit;
+        final FuzzyNameIndex fuzzyIndex = new FuzzyNameIndex();
+        final ConcurrencyLimiter readLimiter;
+        final ConcurrencyLimiter writeLimiter;
+        
+        Store(Map<String, Object> overrides, String metricsName) {
+            // One permit per pooled connection by default, see ConcurrencyLimiter
+            long maxWaitMs = AppConfig.getLong("citizen.db.max-concurrency-wait-ms", 5000);
+            readLimiter = new ConcurrencyLimiter(metricsName, "read",
+                AppConfig.getInt("citizen.db.max-concurrency",
+                    AppConfig.getInt(SQLiteConnectionProvider.READER_POOL_SIZE, Runtime.getRuntime().availableProcessors())),
+                maxWaitMs);
+            writeLimiter = new ConcurrencyLimiter(metricsName, "write",
+                AppConfig.getInt("citizen.db.max-write-concurrency", 1), maxWaitMs);
+            emf = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT_NAME, overrides);
+            try {
+                if (String.valueOf(emf.getProperties().get("hibernate.hbm2ddl.auto")).contains("create")) {
+                    // create and create-drop start every boot with an empty citizens table
+                    FullTextIndex.install(emf);
+                    ChangeLog.install(emf);
+                    CitizenIds.install(emf);
+                } else {
+                    SchemaMigrations.migrate(emf);
+                }
+            } catch (RuntimeException e) {
+                emf.close();
+                throw e;
+            }
+            // Second-level and query cache hits and misses, entity loads, transactions
+            HibernateMetrics.monitor(Metrics.REGISTRY, emf.unwrap(SessionFactory.class), metricsName);
+            loadFuzzyIndex(emf, fuzzyIndex);
+            if (AppConfig.getBoolean("citizen.write.group-commit.enabled", false)) {
+                groupCommit = new GroupCommitWriter(emf,
+                    AppConfig.getInt("citizen.write.group-commit.queue-capacity", 10000),
+                    AppConfig.getInt("citizen.write.group-commit.max-group-size", 64),
+                    AppConfig.getLong("citizen.write.group-commit.max-wait-micros", 1000),
+                    AppConfig.getLong("citizen.write.group-commit.enqueue-timeout-ms", 5000));
+            } else {
+                groupCommit = null;
+            }
+        }
+        
+        void close() {
+            if (groupCommit != null) {
+                groupCommit.shutdown();
+            }
+            if (emf.isOpen()) {
+                emf.close();
+            }
+        }
+    }
+    
+    /**
+     * A DAO on the file configured in persistence.xml or with citizen.db.url. Every
+     * instance shares the one EntityManagerFactory, opened on first use.
+     */
+    public HibernateCitizenDAO() {
+        this.store = sharedStore();
+    }
+    
+    /**
+     * A DAO on its own shard of the registry, see ShardedCitizenDAO. The shard's file
+     * sits next to the configured one, e.g. citizens-2.db for shard 2, with its own
+     * pools and caches. Ids it hands out leave shard as the remainder of a division by
+     * shardCount. A url, when given, replaces the configured one.
+     */
+    HibernateCitizenDAO(String url, int shard, int shardCount) {
+        Map<String, Object> overrides = hibernateOverrides();
+        if (url != null) {
+            overrides.put(SQLiteConnectionProvider.URL, url);
+        }
+        overrides.put(SQLiteConnectionProvider.SHARD, shard);
+        overrides.put(SQLiteConnectionProvider.SHARD_COUNT, shardCount);
+        // A cache manager per shard, or the query cache would mix up the results of the shards
+        overrides.put(CACHE_MANAGER, cacheManager("#shard-" + shard));
+        this.store = new Store(overrides, PERSISTENCE_UNIT_NAME + "-" + shard);
+        // Rows stored with another shard count would be looked up in the wrong shard
+        List<Long> stray = read("checkShard", em -> em.createQuery(
+                "SELECT c.id FROM Citizen c WHERE mod(c.id, :count) <> :shard", Long.class)
+            .setParameter("count", (long) shardCount)
+            .setParameter("shard", (long) shard)
+            .setMaxResults(1)
+            .getResultList());
+        if (!stray.isEmpty()) {
+            store.close();
+            throw new IllegalStateException("Shard " + shard + " holds citizen " + stray.get(0)
+                + ", which belongs to another shard; citizen.db.shards cannot change once citizens are stored");
+        }
+    }
+    
+    /**
+     * The cache manager for citizen-cache.conf. Passed in rather than named with
+     * hibernate.javax.cache.uri, which does not resolve inside the shaded jar. The
+     * provider tells managers apart by URI and reads the configuration without the fragment.
+     */
+    private static CacheManager cacheManager(String fragment) {
+        CachingProvider provider = Caching.getCachingProvider(CaffeineCachingProvider.class.getName());
+        return provider.getCacheManager(URI.create("classpath:" + CACHE_CONFIG + fragment),
+            HibernateCitizenDAO.class.getClassLoader());
+    }
+    
+    private static Store sharedStore() {
+        Store store = shared;
+        if (store == null) {
+            synchronized (HibernateCitizenDAO.class) {
+                store = shared;
+                if (store == null) {
+                    Map<String, Object> overrides = hibernateOverrides();
+                    overrides.put(CACHE_MANAGER, cacheManager(""));
+                    store = new Store(overrides, PERSISTENCE_UNIT_NAME);
+                    shared = store;
+                }
+            }
+        }
+        return store;
+    }
+    
+    @Override
+    public Citizen save(Citizen citizen) {
+        boolean isNew = citizen.getId() == null;
+        Citizen saved = write("save", em -> {
+            if (isNew) {
+                // Drop an id and version handed out by an earlier attempt that was rolled back
+                citizen.setId(null);
+                citizen.setVersion(null);
+                em.persist(citizen);
+                return citizen;
+            }
+            if (citizen.getVersion() == null) {
+                // No version to check against, overwrite whatever is stored now
+                Citizen current = em.find(Citizen.class, citizen.getId());
+                if (current != null) {
+                    citizen.setVersion(current.getVersion());
+                }
+            }
+            return em.merge(citizen);
+        }, "Error saving citizen");
+        store.fuzzyIndex.put(saved.getId(), saved.getVersion(), saved.getName(), saved.getSurname());
+        DaoMetrics.ROWS_WRITTEN.increment();
+        RegistryVersion.increment();
+        return saved;
+    }
+    
+    /**
+     * Insert a chunk of new citizens in a single transaction. Inserts are sent in
+     * JDBC batches and the persistence context is flushed and cleared per batch.
+     */
+    @Override
+    public List<Citizen> saveAll(List<Citizen> citizens) {
+        long start = System.nanoTime();
+        try {
+            return store.writeLimiter.run(() -> insertAll(citizens));
+        } finally {
+            DaoMetrics.recordCall("saveAll", start);
+        }
+    }
+    
+    private List<Citizen> insertAll(List<Citizen> citizens) {
+        EntityManager em = store.emf.createEntityManager();
+        // Bulk loads should not flush hot entries out of the second-level cache
+        em.setProperty(CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+        try {
+            em.getTransaction().begin();
+            int pending = 0;
+            for (Citizen citizen : citizens) {
+                em.persist(citizen);
+                if (++pending == BATCH_SIZE) {
+                    em.flush();
+                    em.clear();
+                    pending = 0;
+                }
+            }
+            DaoMetrics.commit(em, "bulk");
+            for (Citizen citizen : citizens) {
+                store.fuzzyIndex.put(citizen.getId(), citizen.getVersion(), citizen.getName(), citizen.getSurname());
+            }
+            DaoMetrics.ROWS_WRITTEN.increment(citizens.size());
+            RegistryVersion.increment();
+            return citizens;
+        } catch (Exception e) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            if (isUniqueViolation(e)) {
+                throw new DuplicateCitizenException(DUPLICATE_MESSAGE, e);
+            }
+            throw new RuntimeException("Error saving citizens", e);
+        } finally {
+            em.close();
+        }
+    }
+    
+    @Override
+    public Citizen findById(Long id) {
+        return read("findById", em -> {
+            return em.find(Citizen.class, id);
+        });
+    }
+    
+    /**
+     * Cached citizens come from the second-level cache, the rest are loaded with
+     * IN queries of MULTI_LOAD_CHUNK ids.
+     */
+    @Override
+    public List<Citizen> findByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        return read("findByIds", em -> {
+            List<Citizen> loaded = em.unwrap(Session.class)
+                    .byMultipleIds(Citizen.class)
+                    .withBatchSize(MULTI_LOAD_CHUNK)
+                    .multiLoad(distinctIds);
+            List<Citizen> found = new ArrayList<>(loaded.size());
+            for (Citizen citizen : loaded) {
+                if (citizen != null) {
+                    found.add(citizen);
+                }
+            }
+            return found;
+        });
+    }
+    
+    @Override
+    public List<Citizen> findAll() {
+        return read("findAll", em -> {
+            TypedQuery<Citizen> query = em.createQuery("SELECT c FROM Citizen c", Citizen.class);
+            return query.getResultList();
+        });
+    }
+    
+    /**
+     * Resolved on the unique full-name index, never a table scan
+     */
+    @Override
+    public boolean existsByFullName(String name, String surname, Long excludeId) {
+        return read("existsByFullName", em -> {
+            TypedQuery<Long> query = em.createQuery(
+                "SELECT c.id FROM Citizen c WHERE c.nameKey = :name AND c.surnameKey = :surname"
+                    + (excludeId != null ? " AND c.id <> :excludeId" : ""), Long.class);
+            query.setParameter("name", Citizen.normalizeKey(name));
+            query.setParameter("surname", Citizen.normalizeKey(surname));
+            if (excludeId != null) {
+                query.setParameter("excludeId", excludeId);
+            }
+            query.setMaxResults(1);
+            return !query.getResultList().isEmpty();
+        });
+    }
+    
+    @Override
+    public List<Citizen> findByFullName(String name, String surname) {
+        return read("findByFullName", em -> {
+            TypedQuery<Citizen> query = em.createQuery(
+                "SELECT c FROM Citizen c WHERE c.nameKey = :name AND c.surnameKey = :surname",
+                Citizen.class);
+            query.setParameter("name", Citizen.normalizeKey(name));
+            query.setParameter("surname", Citizen.normalizeKey(surname));
+            query.setHint(HibernateHints.HINT_CACHEABLE, true);
+            return query.getResultList();
+        });
+    }
+    
+    @Override
+    public List<Citizen> findBySurname(String surname) {
+        return read("findBySurname", em -> {
+            TypedQuery<Citizen> query = em.createQuery(
+                "SELECT c FROM Citizen c WHERE c.surnameKey = :surname ORDER BY c.id", Citizen.class);
+            query.setParameter("surname", Citizen.normalizeKey(surname));
+            query.setHint(HibernateHints.HINT_CACHEABLE, true);
+            return query.getResultList();
+        });
+    }
+    
+    /**
+     * Written as a range on surname_key so SQLite can seek the index instead of
+     * evaluating LIKE per row
+     */
+    @Override
+    public List<Citizen> findBySurnamePrefix(String prefix) {
+        String lower = Citizen.normalizeKey(prefix);
+        if (lower.isEmpty()) {
+            throw new IllegalArgumentException("Surname prefix cannot be empty");
+        }
+        String upper = lower.substring(0, lower.length() - 1)
+                + (char) (lower.charAt(lower.length() - 1) + 1);
+        return read("findBySurnamePrefix", em -> {
+            TypedQuery<Citizen> query = em.createQuery(
+                "SELECT c FROM Citizen c WHERE c.surnameKey >= :lower AND c.surnameKey < :upper"
+                    + " ORDER BY c.surnameKey, c.id", Citizen.class);
+            query.setParameter("lower", lower);
+            query.setParameter("upper", upper);
+            query.setHint(HibernateHints.HINT_CACHEABLE, true);
+            return query.getResultList();
+        });
+    }
+    
+    @Override
+    public long count() {
+        return read("count", em -> {
+            return em.createQuery("SELECT COUNT(c) FROM Citizen c", Long.class)
+                    .setHint(HibernateHints.HINT_CACHEABLE, true)
+                    .getSingleResult();
+        });
+    }
+    
+    /**
+     * Stops at the first row
+     */
+    @Override
+    public boolean existsAny() {
+        return read("existsAny", em -> {
+            return !em.createQuery("SELECT c.id FROM Citizen c", Long.class)
+                    .setMaxResults(1)
+                    .setHint(HibernateHints.HINT_CACHEABLE, true)
+                    .getResultList()
+                    .isEmpty();
+        });
+    }
+    
+    /**
+     * Seeks on the primary key so the cost of a page does not depend on its position
+     */
+    @Override
+    public List<Citizen> findPage(Long afterId, int limit) {
+        return read("findPage", em -> {
+            TypedQuery<Citizen> query = em.createQuery(
+                "SELECT c FROM Citizen c WHERE c.id > :afterId ORDER BY c.id", Citizen.class);
+            query.setParameter("afterId", afterId == null ? 0L : afterId);
+            query.setMaxResults(limit);
+            return query.getResultList();
+        });
+    }
+    
+    /**
+     * Streams in pages of {@code fetchSize} by id, each read with its own connection
+     * and database permit, so a slow client holds neither, nor a read transaction
+     * that would keep the WAL from being checkpointed. Like any paged read, the result
+     * is not one snapshot: citizens written meanwhile may or may not be included.
+     */
+    @Override
+    public long streamAll(int fetchSize, Consumer<Citizen> consumer) {
+        long start = System.nanoTime();
+        try {
+            long count = 0;
+            long afterId = 0;
+            while (true) {
+                List<Citizen> page = exportPage(afterId, fetchSize);
+                for (Citizen citizen : page) {
+                    consumer.accept(citizen);
+                }
+                count += page.size();
+                if (page.size() < fetchSize) {
+                    return count;
+                }
+                afterId = page.get(page.size() - 1).getId();
+            }
+        } finally {
+            DaoMetrics.recordCall("streamAll", start);
+        }
+    }
+    
+    private List<Citizen> exportPage(long afterId, int limit) {
+        return read("exportPage", em -> {
+            // An export should not flush hot entries out of the second-level cache
+            em.setProperty(CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+            return em.createQuery("SELECT c FROM Citizen c WHERE c.id > :afterId ORDER BY c.id", Citizen.class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultList();
+        });
+    }
+    
+    /**
+     * Served from the trigram index; only text shorter than a trigram falls back
+     * to scanning with LIKE
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Citizen> findByName(String name) {
+        String match = FullTextIndex.phrase(name, "name");
+        return read("findByName", em -> {
+            if (match == null) {
+                TypedQuery<Citizen> query = em.createQuery(
+                    "SELECT c FROM Citizen c WHERE c.name LIKE :name ESCAPE '\\'", Citizen.class);
+                query.setParameter("name", containing(name));
+                return query.getResultList();
+            }
+            return em.createNativeQuery(
+                    "SELECT c.* FROM citizens_fts JOIN citizens c ON c.id = citizens_fts.rowid "
+                        + "WHERE citizens_fts MATCH :match", Citizen.class)
+                    .setParameter("match", match)
+                    .getResultList();
+        });
+    }
+    
+    /**
+     * Results come from the trigram index, best ranked (bm25) first. Terms too short
+     * for it must still appear in the name or surname of every result.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Citizen> search(String text, int limit) {
+        String match = FullTextIndex.allTerms(text);
+        List<String> shortTerms = FullTextIndex.shortTerms(text);
+        return read("search", em -> {
+            if (match == null) {
+                // Only terms shorter than a trigram, scan for the first matches
+                String pattern = containing(text.trim());
+                return em.createQuery(
+                        "SELECT c FROM Citizen c WHERE c.name LIKE :text ESCAPE '\\' "
+                            + "OR c.surname LIKE :text ESCAPE '\\' ORDER BY c.id",
+                        Citizen.class)
+                        .setParameter("text", pattern)
+                        .setMaxResults(limit)
+                        .getResultList();
+            }
+            StringBuilder sql = new StringBuilder(
+                    "SELECT c.* FROM citizens_fts JOIN citizens c ON c.id = citizens_fts.rowid "
+                        + "WHERE citizens_fts MATCH :match");
+            for (int i = 0; i < shortTerms.size(); i++) {
+                sql.append(" AND (c.name_key LIKE :short").append(i).append(" ESCAPE '\\' ")
+                    .append("OR c.surname_key LIKE :short").append(i).append(" ESCAPE '\\')");
+            }
+            sql.append(" ORDER BY citizens_fts.rank LIMIT :limit");
+            Query query = em.createNativeQuery(sql.toString(), Citizen.class)
+                    .setParameter("match", match)
+                    .setParameter("limit", limit);
+            for (int i = 0; i < shortTerms.size(); i++) {
+                query.setParameter("short" + i, containing(shortTerms.get(i)));
+            }
+            return query.getResultList();
+        });
+    }
+    
+    /**
+     * Ranked from the in-memory FuzzyNameIndex, then loaded by id
+     */
+    @Override
+    public List<Citizen> fuzzySearch(String text, int limit) {
+        long start = System.nanoTime();
+        try {
+            return findByIds(store.fuzzyIndex.search(text, limit));
+        } finally {
+            DaoMetrics.recordCall("fuzzySearch", start);
+        }
+    }
+    
+    @Override
+    public List<CitizenChange> findChangesAfter(long seq, int limit) {
+        return read("findChangesAfter", em -> {
+            List<?> rows = em.createNativeQuery(ChangeLog.SELECT_AFTER)
+                    .setParameter("after", seq)
+                    .setParameter("limit", limit)
+                    .getResultList();
+            List<CitizenChange> changes = new ArrayList<>(rows.size());
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                changes.add(new CitizenChange(
+                    ((Number) columns[0]).longValue(),
+                    CitizenChange.Type.valueOf((String) columns[1]),
+                    columns[2] == null ? null : ((Number) columns[2]).longValue(),
+                    (String) columns[3],
+                    (String) columns[4],
+                    columns[5] == null ? null : ((Number) columns[5]).longValue(),
+                    ((Number) columns[6]).longValue()));
+            }
+            return changes;
+        });
+    }
+    
+    @Override
+    public long latestChangeSeq() {
+        return read("latestChangeSeq", em -> {
+            return ((Number) em.createNativeQuery(ChangeLog.SELECT_LATEST).getSingleResult()).longValue();
+        });
+    }
+    
+    @Override
+    public boolean delete(Long id) {
+        boolean deleted = write("delete", em -> {
+            Citizen citizen = em.find(Citizen.class, id);
+            if (citizen == null) {
+                return false;
+            }
+            em.remove(citizen);
+            return true;
+        }, "Error deleting citizen");
+        if (deleted) {
+            store.fuzzyIndex.remove(id);
+            DaoMetrics.ROWS_WRITTEN.increment();
+            RegistryVersion.increment();
+        }
+        return deleted;
+    }
+    
+    /**
+     * Fill the fuzzy search index from the citizens already stored, saves and deletes
+     * keep it up to date from then on
+     */
+    private static void loadFuzzyIndex(EntityManagerFactory emf, FuzzyNameIndex fuzzyIndex) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            Session session = em.unwrap(Session.class);
+            try (ScrollableResults<Citizen> rows = session
+                    .createQuery("SELECT c FROM Citizen c", Citizen.class)
+                    .setReadOnly(true)
+                    .setFetchSize(BATCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY)) {
+                long count = 0;
+                while (rows.next()) {
+                    Citizen citizen = rows.get();
+                    fuzzyIndex.put(citizen.getId(), citizen.getVersion(), citizen.getName(), citizen.getSurname());
+                    if (++count % BATCH_SIZE == 0) {
+                        session.clear();
+                    }
+                }
+            }
+        } finally {
+            em.close();
+        }
+    }
+    
+    /**
+     * hibernate.* system properties, so any Hibernate setting in persistence.xml can be
+     * overridden at startup, e.g. -Dhibernate.show_sql=false
+     */
+    private static Map<String, Object> hibernateOverrides() {
+        Map<String, Object> overrides = new HashMap<>();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("hibernate.")) {
+                overrides.put(name, System.getProperty(name));
+            }
+        }
+        return overrides;
+    }
+    
+    /**
+     * Run a query on its own EntityManager, using a connection from the read-only pool.
+     * The call is timed under the operation name and returned citizens are counted.
+     */
+    private <T> T read(String operation, Function<EntityManager, T> work) {
+        long start = System.nanoTime();
+        try {
+            T result = store.readLimiter.run(() -> SQLiteConnectionProvider.readOnly(() -> {
+                EntityManager em = store.emf.createEntityManager();
+                try {
+                    return work.apply(em);
+                } finally {
+                    em.close();
+                }
+            }));
+            if (result instanceof Collection) {
+                DaoMetrics.ROWS_READ.increment(((Collection<?>) result).size());
+            } else if (result instanceof Citizen) {
+                DaoMetrics.ROWS_READ.increment();
+            }
+            return result;
+        } finally {
+            DaoMetrics.recordCall(operation, start);
+        }
+    }
+    
+    /**
+     * Run a mutation in a transaction, either inline or through the group-commit queue.
+     * The call is timed under the operation name, including any wait in the queue.
+     */
+    private <T> T write(String operation, Function<EntityManager, T> work, String errorMessage) {
+        long start = System.nanoTime();
+        try {
+            if (store.groupCommit != null) {
+                // The queue bounds these already, and the writer thread holds the only connection
+                return store.groupCommit.submit(work).join();
+            }
+            return store.writeLimiter.run(() -> {
+                EntityManager em = store.emf.createEntityManager();
+                try {
+                    em.getTransaction().begin();
+                    T result = work.apply(em);
+                    DaoMetrics.commit(em, "inline");
+                    return result;
+                } catch (RuntimeException e) {
+                    if (em.getTransaction().isActive()) {
+                        em.getTransaction().rollback();
+                    }
+                    throw e;
+                } finally {
+                    em.close();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (isUniqueViolation(cause)) {
+                throw new DuplicateCitizenException(DUPLICATE_MESSAGE, cause);
+            }
+            if (isVersionConflict(cause)) {
+                throw new CitizenVersionConflictException("Citizen was changed by another request", cause);
+            }
+            throw new RuntimeException(errorMessage, cause);
+        } finally {
+            DaoMetrics.recordCall(operation, start);
+        }
+    }
+    
+    // LIKE pattern matching text anywhere, with its own % and _ taken literally
+    private static String containing(String text) {
+        return "%" + text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    private static boolean isVersionConflict(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockException || cause instanceof StaleStateException) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isUniqueViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLiteException) {
+                SQLiteErrorCode code = ((SQLiteException) cause).getResultCode();
+                return code == SQLiteErrorCode.SQLITE_CONSTRAINT_UNIQUE;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Hibernate statistics of the shared EntityManagerFactory, including hit/miss/put
+     * counts of the second-level cache regions
+     */
+    public static Statistics statistics() {
+        return sharedStore().emf.unwrap(SessionFactory.class).getStatistics();
+    }
+    
+    @Override
+    public void close() {
+        if (store == shared) {
+            closeEntityManagerFactory();
+        } else {
+            store.close();
+        }
+    }
+    
+    public static void closeEntityManagerFactory() {
+        synchronized (HibernateCitizenDAO.class) {
+            if (shared != null) {
+                shared.close();
+                shared = null;
+            }
+        }
+    }
+    
+    FuzzyNameIndex fuzzyIndex() {
+        return store.fuzzyIndex;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.dao;
+
+import java.util.Arrays;
+
+/**
+ * Sorted set of citizen ids in a plain long array, for index entries.
+ *
+ * Ids are handed out in ascending order, so adding one is nearly always an append.
+ * Not thread-safe.
+ */
+final class IdSet {
+
+    private long[] ids = new long[1];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    long get(int index) {
+        return ids[index];
+    }
+
+    void add(long id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        if (size == 0 || ids[size - 1] < id) {
+            ids[size++] = id;
+            return;
+        }
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        System.arraycopy(ids, index, ids, index + 1, size - index);
+        ids[index] = id;
+        size++;
+    }
+
+    boolean remove(long id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        size--;
+        return true;
+    }
+}
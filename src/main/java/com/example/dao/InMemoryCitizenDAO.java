@@ -0,0 +1,819 @@
+package com.example.dao;
+
+import com.example.entity.Citizen;
+import com.example.entity.CitizenChange;
+import com.example.exception.CitizenVersionConflictException;
+import com.example.exception.DuplicateCitizenException;
+import com.example.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * CitizenDAO that serves the whole registry from memory and persists it with a
+ * write-ahead log and snapshots in one directory.
+ *
+ * Citizens are kept in a map keyed by the primitive id, next to indexes by full name
+ * (the uniqueness check), name and surname; the surname index is sorted for prefix
+ * lookups. A StampedLock guards all of it: writes are serialized, lookups by id read
+ * optimistically without taking the lock, other reads share the read lock.
+ *
+ * A write is appended to the log, applied, and acknowledged once the log is fsynced;
+ * concurrent writers share fsyncs (see WriteAheadLog). Readers can see a change a
+ * moment before it is durable, its writer only returns after. Once the current log
+ * segment passes snapshotAfterBytes, a background thread writes a snapshot and deletes
+ * the segments it covers. On startup the newest snapshot is loaded and the log after
+ * it replayed.
+ *
+ * The change log is the write-ahead log itself: the last changeHistory entries are
+ * kept in memory, a follower further behind gets a RESET.
+ */
+public class InMemoryCitizenDAO implements CitizenDAO {
+
+    private static final String DUPLICATE_MESSAGE =
+        "A citizen with the same name and surname already exists";
+    private static final int MAX_NAME_LENGTH = 100;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Timer SNAPSHOTS = Metrics.timer("citizen.memory.snapshot");
+    private static final Counter SNAPSHOT_ERRORS = Metrics.counter("citizen.memory.snapshot.errors");
+
+    /**
+     * A registered citizen as stored: immutable, replaced as a whole on update
+     */
+    static final class Stored {
+        final long id;
+        final long version;
+        final String name;
+        final String surname;
+        final String nameKey;
+        final String surnameKey;
+
+        private Stored(long id, long version, String name, String surname) {
+            this.id = id;
+            this.version = version;
+            this.name = name;
+            this.surname = surname;
+            this.nameKey = Citizen.normalizeKey(name);
+            this.surnameKey = Citizen.normalizeKey(surname);
+        }
+
+        static Stored of(long id, long version, String name, String surname) {
+            return new Stored(id, version, name, surname);
+        }
+
+        String fullNameKey() {
+            return fullNameKey(nameKey, surnameKey);
+        }
+
+        static String fullNameKey(String nameKey, String surnameKey) {
+            return nameKey + '\u0000' + surnameKey;
+        }
+
+        Citizen toCitizen() {
+            Citizen citizen = new Citizen(name, surname);
+            citizen.setId(id);
+            citizen.setVersion(version);
+            return citizen;
+        }
+    }
+
+    private final Path dir;
+    private final boolean fsync;
+    private final long snapshotAfterBytes;
+    private final WriteAheadLog wal;
+    private final StampedLock lock = new StampedLock();
+    private final ExecutorService snapshotter;
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+
+    // Everything below is guarded by lock
+    private final LongObjectMap<Stored> byId = new LongObjectMap<>();
+    private final Map<String, Long> byFullName = new HashMap<>();
+    private final Map<String, IdSet> byName = new HashMap<>();
+    private final TreeMap<String, IdSet> bySurname = new TreeMap<>();
+    private final FuzzyNameIndex fuzzyIndex = new FuzzyNameIndex();
+    // Ids in ascending order for paging; deleted ones are skipped until the array is compacted
+    private long[] order = new long[1024];
+    private int orderSize;
+    private int orderDeleted;
+    private final ChangeHistory history;
+    private long lastId;
+    private long lastSeq;
+    private volatile long snapshotSeq;
+
+    public InMemoryCitizenDAO(Path dir, boolean fsync, long snapshotAfterBytes, int changeHistory) {
+        this.dir = dir;
+        this.fsync = fsync;
+        this.snapshotAfterBytes = snapshotAfterBytes;
+        try {
+            Files.createDirectories(dir);
+            SnapshotFile.Loaded snapshot = SnapshotFile.loadLatest(dir);
+            if (snapshot != null) {
+                for (Stored citizen : snapshot.citizens) {
+                    insert(citizen);
+                }
+                lastId = snapshot.lastId;
+                lastSeq = snapshot.seq;
+                snapshotSeq = snapshot.seq;
+            }
+            history = new ChangeHistory(changeHistory, lastSeq);
+            wal = new WriteAheadLog(dir, fsync);
+            wal.replay(lastSeq, this::redo);
+            wal.startSegment(lastSeq + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the registry from " + dir, e);
+        }
+        snapshotter = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "citizen-memory-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public Citizen save(Citizen citizen) {
+        long start = System.nanoTime();
+        try {
+            checkNames(citizen);
+            String fullNameKey = Stored.fullNameKey(
+                Citizen.normalizeKey(citizen.getName()), Citizen.normalizeKey(citizen.getSurname()));
+            Citizen saved;
+            long seq;
+            long stamp = lock.writeLock();
+            try {
+                Stored existing = citizen.getId() == null ? null : byId.get(citizen.getId());
+                Long holder = byFullName.get(fullNameKey);
+                if (existing == null) {
+                    // Like a merge, an id that is not registered (anymore) gets a new one
+                    if (holder != null) {
+                        throw new DuplicateCitizenException(DUPLICATE_MESSAGE);
+                    }
+                    Stored stored = new Stored(lastId + 1, 0, citizen.getName(), citizen.getSurname());
+                    seq = log(List.of(stored), CitizenChange.Type.CREATED);
+                    lastId = stored.id;
+                    insert(stored);
+                    citizen.setId(stored.id);
+                    citizen.setVersion(stored.version);
+                    saved = citizen;
+                } else {
+                    if (citizen.getVersion() != null && citizen.getVersion() != existing.version) {
+                        throw new CitizenVersionConflictException("Citizen was changed by another request");
+                    }
+                    if (holder != null && holder != existing.id) {
+                        throw new DuplicateCitizenException(DUPLICATE_MESSAGE);
+                    }
+                    Stored stored = new Stored(existing.id, existing.version + 1,
+                        citizen.getName(), citizen.getSurname());
+                    seq = log(List.of(stored), CitizenChange.Type.UPDATED);
+                    replace(existing, stored);
+                    saved = stored.toCitizen();
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            committed(seq, 1);
+            return saved;
+        } finally {
+            DaoMetrics.recordCall("save", start);
+        }
+    }
+
+    /**
+     * Checked as a whole before anything is logged, so a rejected batch leaves no trace
+     */
+    @Override
+    public List<Citizen> saveAll(List<Citizen> citizens) {
+        if (citizens.isEmpty()) {
+            return citizens;
+        }
+        long start = System.nanoTime();
+        try {
+            for (Citizen citizen : citizens) {
+                checkNames(citizen);
+            }
+            long seq;
+            long stamp = lock.writeLock();
+            try {
+                List<Stored> batch = new ArrayList<>(citizens.size());
+                Set<String> batchNames = new HashSet<>();
+                long id = lastId;
+                for (Citizen citizen : citizens) {
+                    Stored stored = new Stored(++id, 0, citizen.getName(), citizen.getSurname());
+                    String fullNameKey = stored.fullNameKey();
+                    if (byFullName.containsKey(fullNameKey) || !batchNames.add(fullNameKey)) {
+                        throw new DuplicateCitizenException(DUPLICATE_MESSAGE);
+                    }
+                    batch.add(stored);
+                }
+                seq = log(batch, CitizenChange.Type.CREATED);
+                lastId = id;
+                for (int i = 0; i < batch.size(); i++) {
+                    insert(batch.get(i));
+                    citizens.get(i).setId(batch.get(i).id);
+                    citizens.get(i).setVersion(0L);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            committed(seq, citizens.size());
+            return citizens;
+        } finally {
+            DaoMetrics.recordCall("saveAll", start);
+        }
+    }
+
+    /**
+     * Reads optimistically: no lock is taken unless a write ran meanwhile
+     */
+    @Override
+    public Citizen findById(Long id) {
+        long start = System.nanoTime();
+        try {
+            if (id == null) {
+                return null;
+            }
+            long stamp = lock.tryOptimisticRead();
+            Stored stored = byId.get(id);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    stored = byId.get(id);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            if (stored == null) {
+                return null;
+            }
+            DaoMetrics.ROWS_READ.increment();
+            return stored.toCitizen();
+        } finally {
+            DaoMetrics.recordCall("findById", start);
+        }
+    }
+
+    @Override
+    public List<Citizen> findByIds(Collection<Long> ids) {
+        long start = System.nanoTime();
+        try {
+            Collection<Long> distinctIds = new LinkedHashSet<>(ids);
+            long stamp = lock.tryOptimisticRead();
+            List<Stored> found = lookup(distinctIds);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    found = lookup(distinctIds);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            List<Citizen> citizens = new ArrayList<>(found.size());
+            for (Stored stored : found) {
+                citizens.add(stored.toCitizen());
+            }
+            DaoMetrics.ROWS_READ.increment(citizens.size());
+            return citizens;
+        } finally {
+            DaoMetrics.recordCall("findByIds", start);
+        }
+    }
+
+    @Override
+    public List<Citizen> findAll() {
+        return read("findAll", () -> page(0, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public boolean existsByFullName(String name, String surname, Long excludeId) {
+        String fullNameKey = Stored.fullNameKey(Citizen.normalizeKey(name), Citizen.normalizeKey(surname));
+        return read("existsByFullName", () -> {
+            Long holder = byFullName.get(fullNameKey);
+            return holder != null && !holder.equals(excludeId);
+        });
+    }
+
+    @Override
+    public List<Citizen> findByFullName(String name, String surname) {
+        String fullNameKey = Stored.fullNameKey(Citizen.normalizeKey(name), Citizen.normalizeKey(surname));
+        return read("findByFullName", () -> {
+            Long holder = byFullName.get(fullNameKey);
+            List<Citizen> found = new ArrayList<>(1);
+            if (holder != null) {
+                found.add(byId.get(holder).toCitizen());
+            }
+            return found;
+        });
+    }
+
+    @Override
+    public List<Citizen> findBySurname(String surname) {
+        String surnameKey = Citizen.normalizeKey(surname);
+        return read("findBySurname", () -> {
+            List<Citizen> found = new ArrayList<>();
+            addAll(bySurname.get(surnameKey), found);
+            return found;
+        });
+    }
+
+    @Override
+    public List<Citizen> findBySurnamePrefix(String prefix) {
+        String lower = Citizen.normalizeKey(prefix);
+        if (lower.isEmpty()) {
+            throw new IllegalArgumentException("Surname prefix cannot be empty");
+        }
+        String upper = lower.substring(0, lower.length() - 1)
+                + (char) (lower.charAt(lower.length() - 1) + 1);
+        return read("findBySurnamePrefix", () -> {
+            List<Citizen> found = new ArrayList<>();
+            for (IdSet ids : bySurname.subMap(lower, upper).values()) {
+                addAll(ids, found);
+            }
+            return found;
+        });
+    }
+
+    @Override
+    public long count() {
+        return read("count", () -> (long) byId.size());
+    }
+
+    @Override
+    public boolean existsAny() {
+        return count() > 0;
+    }
+
+    @Override
+    public List<Citizen> findPage(Long afterId, int limit) {
+        return read("findPage", () -> page(afterId == null ? 0L : afterId, limit));
+    }
+
+    /**
+     * Page by page under the read lock, so writes go on while the consumer runs
+     */
+    @Override
+    public long streamAll(int fetchSize, Consumer<Citizen> consumer) {
+        long start = System.nanoTime();
+        try {
+            long count = 0;
+            long afterId = 0;
+            while (true) {
+                List<Citizen> page;
+                long stamp = lock.readLock();
+                try {
+                    page = page(afterId, fetchSize);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+                for (Citizen citizen : page) {
+                    consumer.accept(citizen);
+                }
+                count += page.size();
+                if (page.size() < fetchSize) {
+                    break;
+                }
+                afterId = page.get(page.size() - 1).getId();
+            }
+            DaoMetrics.ROWS_READ.increment(count);
+            return count;
+        } finally {
+            DaoMetrics.recordCall("streamAll", start);
+        }
+    }
+
+    /**
+     * Scans the distinct names rather than the citizens
+     */
+    @Override
+    public List<Citizen> findByName(String name) {
+        String text = name.toLowerCase(Locale.ROOT);
+        return read("findByName", () -> {
+            Set<Long> ids = new HashSet<>();
+            collectMatching(byName, text, ids);
+            return sortedById(ids);
+        });
+    }
+
+    /**
+     * Every term of three or more characters must match, and shorter terms must
+     * appear in the name or surname; shorter matches rank first, the closest thing to
+     * bm25 on names this short. Only shorter terms: the first citizens by id
+     * containing the text.
+     */
+    @Override
+    public List<Citizen> search(String text, int limit) {
+        List<String> terms = new ArrayList<>();
+        for (String term : WHITESPACE.split(text.trim())) {
+            if (term.codePointCount(0, term.length()) >= FullTextIndex.MIN_TERM_LENGTH) {
+                terms.add(term.toLowerCase(Locale.ROOT));
+            }
+        }
+        List<String> shortTerms = FullTextIndex.shortTerms(text);
+        return read("search", () -> {
+            if (terms.isEmpty()) {
+                String pattern = text.trim().toLowerCase(Locale.ROOT);
+                List<Citizen> found = new ArrayList<>();
+                for (int i = 0; i < orderSize && found.size() < limit; i++) {
+                    Stored stored = byId.get(order[i]);
+                    if (stored != null && (stored.nameKey.contains(pattern) || stored.surnameKey.contains(pattern))) {
+                        found.add(stored.toCitizen());
+                    }
+                }
+                return found;
+            }
+            Set<Long> candidates = null;
+            for (String term : terms) {
+                Set<Long> matching = new HashSet<>();
+                collectMatching(byName, term, matching);
+                collectMatching(bySurname, term, matching);
+                if (candidates == null) {
+                    candidates = matching;
+                } else {
+                    candidates.retainAll(matching);
+                }
+            }
+            List<Stored> hits = new ArrayList<>(candidates.size());
+            for (Long id : candidates) {
+                Stored stored = byId.get(id);
+                if (containsAll(stored, shortTerms)) {
+                    hits.add(stored);
+                }
+            }
+            hits.sort(Comparator.<Stored>comparingInt(stored -> stored.nameKey.length() + stored.surnameKey.length())
+                .thenComparingLong(stored -> stored.id));
+            List<Citizen> found = new ArrayList<>(Math.min(limit, hits.size()));
+            for (int i = 0; i < hits.size() && i < limit; i++) {
+                found.add(hits.get(i).toCitizen());
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Ranked by the FuzzyNameIndex, which is kept in step under the write lock
+     */
+    @Override
+    public List<Citizen> fuzzySearch(String text, int limit) {
+        long start = System.nanoTime();
+        try {
+            return findByIds(fuzzyIndex.search(text, limit));
+        } finally {
+            DaoMetrics.recordCall("fuzzySearch", start);
+        }
+    }
+
+    @Override
+    public List<CitizenChange> findChangesAfter(long seq, int limit) {
+        return read("findChangesAfter", () -> {
+            return history.after(seq, limit);
+        });
+    }
+
+    @Override
+    public long latestChangeSeq() {
+        return read("latestChangeSeq", () -> lastSeq);
+    }
+
+    @Override
+    public boolean delete(Long id) {
+        long start = System.nanoTime();
+        try {
+            long seq;
+            long stamp = lock.writeLock();
+            try {
+                Stored existing = id == null ? null : byId.get(id);
+                if (existing == null) {
+                    return false;
+                }
+                seq = log(List.of(existing), CitizenChange.Type.DELETED);
+                remove(existing);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            committed(seq, 1);
+            return true;
+        } finally {
+            DaoMetrics.recordCall("delete", start);
+        }
+    }
+
+    /**
+     * Waits for a running snapshot and writes a last one, so the next start has no log to replay
+     */
+    @Override
+    public void close() {
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            snapshot();
+        } catch (RuntimeException e) {
+            SNAPSHOT_ERRORS.increment();
+        }
+        try {
+            wal.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close the write-ahead log", e);
+        }
+    }
+
+    /**
+     * Write a snapshot of the current state and drop the log it makes redundant.
+     * The lock is only held to copy the citizen references and switch log segments.
+     */
+    void snapshot() {
+        long start = System.nanoTime();
+        long seq;
+        long snapshotLastId;
+        Stored[] citizens;
+        long stamp = lock.writeLock();
+        try {
+            if (lastSeq == snapshotSeq) {
+                return;
+            }
+            seq = lastSeq;
+            snapshotLastId = lastId;
+            citizens = new Stored[byId.size()];
+            int count = 0;
+            for (int i = 0; i < orderSize; i++) {
+                Stored stored = byId.get(order[i]);
+                if (stored != null) {
+                    citizens[count++] = stored;
+                }
+            }
+            wal.startSegment(seq + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start a new write-ahead log segment", e);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        try {
+            SnapshotFile.write(dir, seq, snapshotLastId, citizens, fsync);
+            snapshotSeq = seq;
+            wal.deleteSegmentsBefore(seq + 1);
+            SnapshotFile.deleteBefore(dir, seq);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write a snapshot to " + dir, e);
+        }
+        SNAPSHOTS.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private <T> T read(String operation, Supplier<T> work) {
+        long start = System.nanoTime();
+        long stamp = lock.readLock();
+        try {
+            T result = work.get();
+            if (result instanceof Collection) {
+                DaoMetrics.ROWS_READ.increment(((Collection<?>) result).size());
+            }
+            return result;
+        } finally {
+            lock.unlockRead(stamp);
+            DaoMetrics.recordCall(operation, start);
+        }
+    }
+
+    /**
+     * After the write lock is released: wait until durable, then announce the change
+     */
+    private void committed(long seq, int rows) {
+        wal.sync(seq);
+        DaoMetrics.ROWS_WRITTEN.increment(rows);
+        RegistryVersion.increment();
+        if (wal.segmentBytes() >= snapshotAfterBytes && snapshotScheduled.compareAndSet(false, true)) {
+            try {
+                snapshotter.execute(() -> {
+                    try {
+                        snapshot();
+                    } catch (RuntimeException e) {
+                        SNAPSHOT_ERRORS.increment();
+                    } finally {
+                        snapshotScheduled.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Closing, close() writes the snapshot
+                snapshotScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Append the changes to the log and the history, under the write lock.
+     * Returns the sequence number of the last one.
+     */
+    private long log(List<Stored> citizens, CitizenChange.Type type) {
+        long now = System.currentTimeMillis();
+        List<WriteAheadLog.Entry> entries = new ArrayList<>(citizens.size());
+        long seq = lastSeq;
+        for (Stored citizen : citizens) {
+            entries.add(type == CitizenChange.Type.DELETED
+                ? new WriteAheadLog.Entry(++seq, type, citizen.id, citizen.version, null, null, now)
+                : new WriteAheadLog.Entry(++seq, type, citizen.id, citizen.version, citizen.name, citizen.surname, now));
+        }
+        wal.append(entries);
+        for (WriteAheadLog.Entry entry : entries) {
+            remember(entry);
+        }
+        lastSeq = seq;
+        return seq;
+    }
+
+    /**
+     * Apply a change read back from the log
+     */
+    private void redo(WriteAheadLog.Entry entry) {
+        Stored existing = byId.get(entry.id);
+        if (entry.type == CitizenChange.Type.DELETED) {
+            if (existing != null) {
+                remove(existing);
+            }
+        } else {
+            Stored stored = new Stored(entry.id, entry.version, entry.name, entry.surname);
+            if (existing == null) {
+                insert(stored);
+            } else {
+                replace(existing, stored);
+            }
+            lastId = Math.max(lastId, entry.id);
+        }
+        remember(entry);
+        lastSeq = entry.seq;
+    }
+
+    private void remember(WriteAheadLog.Entry entry) {
+        history.add(new CitizenChange(entry.seq, entry.type, entry.id,
+            entry.name, entry.surname, entry.version, entry.timestamp));
+    }
+
+    private void insert(Stored stored) {
+        byId.put(stored.id, stored);
+        fuzzyIndex.put(stored.id, stored.version, stored.name, stored.surname);
+        byFullName.put(stored.fullNameKey(), stored.id);
+        index(byName, stored.nameKey, stored.id);
+        index(bySurname, stored.surnameKey, stored.id);
+        if (orderSize == order.length) {
+            order = Arrays.copyOf(order, orderSize * 2);
+        }
+        // Ids are handed out in ascending order, so this is an append
+        int index = orderSize;
+        while (index > 0 && order[index - 1] > stored.id) {
+            index--;
+        }
+        System.arraycopy(order, index, order, index + 1, orderSize - index);
+        order[index] = stored.id;
+        orderSize++;
+    }
+
+    private void replace(Stored existing, Stored stored) {
+        byId.put(stored.id, stored);
+        fuzzyIndex.put(stored.id, stored.version, stored.name, stored.surname);
+        if (!existing.fullNameKey().equals(stored.fullNameKey())) {
+            byFullName.remove(existing.fullNameKey());
+            byFullName.put(stored.fullNameKey(), stored.id);
+        }
+        if (!existing.nameKey.equals(stored.nameKey)) {
+            unindex(byName, existing.nameKey, existing.id);
+            index(byName, stored.nameKey, stored.id);
+        }
+        if (!existing.surnameKey.equals(stored.surnameKey)) {
+            unindex(bySurname, existing.surnameKey, existing.id);
+            index(bySurname, stored.surnameKey, stored.id);
+        }
+    }
+
+    private void remove(Stored existing) {
+        byId.remove(existing.id);
+        fuzzyIndex.remove(existing.id);
+        byFullName.remove(existing.fullNameKey());
+        unindex(byName, existing.nameKey, existing.id);
+        unindex(bySurname, existing.surnameKey, existing.id);
+        if (++orderDeleted > 1024 && orderDeleted > orderSize / 2) {
+            rebuildOrder();
+        }
+    }
+
+    private void rebuildOrder() {
+        long[] live = new long[Math.max(1024, byId.size() * 2)];
+        int size = 0;
+        for (int i = 0; i < orderSize; i++) {
+            if (byId.get(order[i]) != null) {
+                live[size++] = order[i];
+            }
+        }
+        order = live;
+        orderSize = size;
+        orderDeleted = 0;
+    }
+
+    private List<Citizen> page(long afterId, int limit) {
+        int index = Arrays.binarySearch(order, 0, orderSize, afterId);
+        index = index >= 0 ? index + 1 : -index - 1;
+        List<Citizen> page = new ArrayList<>(Math.min(limit, Math.max(0, orderSize - index)));
+        for (int i = index; i < orderSize && page.size() < limit; i++) {
+            Stored stored = byId.get(order[i]);
+            if (stored != null) {
+                page.add(stored.toCitizen());
+            }
+        }
+        return page;
+    }
+
+    private List<Stored> lookup(Collection<Long> ids) {
+        List<Stored> found = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Stored stored = id == null ? null : byId.get(id);
+            if (stored != null) {
+                found.add(stored);
+            }
+        }
+        return found;
+    }
+
+    private void addAll(IdSet ids, List<Citizen> found) {
+        if (ids != null) {
+            for (int i = 0; i < ids.size(); i++) {
+                found.add(byId.get(ids.get(i)).toCitizen());
+            }
+        }
+    }
+
+    private List<Citizen> sortedById(Set<Long> ids) {
+        long[] sorted = new long[ids.size()];
+        int i = 0;
+        for (Long id : ids) {
+            sorted[i++] = id;
+        }
+        Arrays.sort(sorted);
+        List<Citizen> found = new ArrayList<>(sorted.length);
+        for (long id : sorted) {
+            found.add(byId.get(id).toCitizen());
+        }
+        return found;
+    }
+
+    private static void collectMatching(Map<String, IdSet> index, String text, Set<Long> ids) {
+        for (Map.Entry<String, IdSet> entry : index.entrySet()) {
+            if (entry.getKey().contains(text)) {
+                IdSet matching = entry.getValue();
+                for (int i = 0; i < matching.size(); i++) {
+                    ids.add(matching.get(i));
+                }
+            }
+        }
+    }
+
+    private static boolean containsAll(Stored stored, List<String> terms) {
+        for (String term : terms) {
+            if (!stored.nameKey.contains(term) && !stored.surnameKey.contains(term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void index(Map<String, IdSet> index, String key, long id) {
+        index.computeIfAbsent(key, k -> new IdSet()).add(id);
+    }
+
+    private static void unindex(Map<String, IdSet> index, String key, long id) {
+        IdSet ids = index.get(key);
+        if (ids != null && ids.remove(id) && ids.size() == 0) {
+            index.remove(key);
+        }
+    }
+
+    private static void checkNames(Citizen citizen) {
+        String name = citizen.getName();
+        String surname = citizen.getSurname();
+        if (name == null || surname == null || name.length() > MAX_NAME_LENGTH || surname.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException(
+                "Citizen name and surname are required, at most " + MAX_NAME_LENGTH + " characters each");
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.dao;
+
+/**
+ * Hash map from positive long keys to values that stores the keys unboxed.
+ *
+ * Open addressing with linear probing; a removal shifts the entries after it back
+ * instead of leaving a tombstone. Not thread-safe: writers need exclusive access.
+ * A reader may race with a writer as long as it validates afterwards, as with a
+ * StampedLock optimistic read: get never throws or loops on a table that is being
+ * changed, at worst it returns a wrong answer.
+ */
+final class LongObjectMap<V> {
+
+    private static final long EMPTY = 0;
+    private static final int MIN_CAPACITY = 16;
+
+    // Keys and values are swapped together, so a reader never pairs arrays of different sizes
+    private static final class Table {
+        final long[] keys;
+        final Object[] values;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+        }
+    }
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        Table current = table;
+        long[] keys = current.keys;
+        int mask = keys.length - 1;
+        int index = slot(key, mask);
+        for (int probes = 0; probes < keys.length; probes++) {
+            long candidate = keys[index];
+            if (candidate == key) {
+                return (V) current.values[index];
+            }
+            if (candidate == EMPTY) {
+                return null;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (key <= EMPTY) {
+            throw new IllegalArgumentException("Keys must be positive: " + key);
+        }
+        if ((size + 1) * 2 > table.keys.length) {
+            resize(table.keys.length * 2);
+        }
+        Table current = table;
+        int mask = current.keys.length - 1;
+        int index = slot(key, mask);
+        while (current.keys[index] != EMPTY) {
+            if (current.keys[index] == key) {
+                V previous = (V) current.values[index];
+                current.values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        current.values[index] = value;
+        current.keys[index] = key;
+        size++;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        Table current = table;
+        long[] keys = current.keys;
+        Object[] values = current.values;
+        int mask = keys.length - 1;
+        int hole = slot(key, mask);
+        while (keys[hole] != key) {
+            if (keys[hole] == EMPTY) {
+                return null;
+            }
+            hole = (hole + 1) & mask;
+        }
+        V removed = (V) values[hole];
+        // Move back every entry of the run that would no longer be found past the hole
+        int next = hole;
+        while (true) {
+            next = (next + 1) & mask;
+            long moving = keys[next];
+            if (moving == EMPTY) {
+                break;
+            }
+            int home = slot(moving, mask);
+            boolean reachable = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (!reachable) {
+                keys[hole] = moving;
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        keys[hole] = EMPTY;
+        values[hole] = null;
+        size--;
+        return removed;
+    }
+
+    private void resize(int capacity) {
+        Table old = table;
+        Table resized = new Table(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < old.keys.length; i++) {
+            long key = old.keys[i];
+            if (key != EMPTY) {
+                int index = slot(key, mask);
+                while (resized.keys[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                resized.keys[index] = key;
+                resized.values[index] = old.values[i];
+            }
+        }
+        table = resized;
+    }
+
+    private static int slot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
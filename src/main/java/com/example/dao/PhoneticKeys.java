@@ -0,0 +1,189 @@
+package com.example.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spelling-independent forms of names for fuzzy matching.
+ *
+ * Names are folded to lower-case ASCII words first: the accented letters CitizenValidator
+ * accepts (U+00C0 to U+00FF) lose their accents, apostrophes are dropped and hyphens
+ * separate words. The phonetic key is a simplified Metaphone of a folded word, so
+ * Philip and Fillip, or Catherine and Katherine, get the same key.
+ */
+final class PhoneticKeys {
+
+    // Folded form of U+00C0 to U+00FF; empty for the two symbols in that range
+    private static final String[] LATIN_1 = {
+        "a", "a", "a", "a", "a", "a", "ae", "c", "e", "e", "e", "e", "i", "i", "i", "i",
+        "d", "n", "o", "o", "o", "o", "o", "", "o", "u", "u", "u", "u", "y", "th", "ss",
+        "a", "a", "a", "a", "a", "a", "ae", "c", "e", "e", "e", "e", "i", "i", "i", "i",
+        "d", "n", "o", "o", "o", "o", "o", "", "o", "u", "u", "u", "u", "y", "th", "y"
+    };
+
+    private PhoneticKeys() {}
+
+    /**
+     * The folded words of a name or a query: "Jean-Pierre O'Brien" gives jean, pierre, obrien
+     */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>(2);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                word.append(c);
+            } else if (c >= 'A' && c <= 'Z') {
+                word.append((char) (c + ('a' - 'A')));
+            } else if (c >= 'À' && c <= 'ÿ') {
+                word.append(LATIN_1[c - 'À']);
+            } else if (c != '\'') {
+                if (word.length() > 0) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                }
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /**
+     * Simplified Metaphone of a folded word: consonant sounds as upper-case letters,
+     * X for sh, 0 for th, and A for a leading vowel
+     */
+    static String metaphone(String word) {
+        int start = 0;
+        if (word.startsWith("kn") || word.startsWith("gn") || word.startsWith("pn")
+                || word.startsWith("wr") || word.startsWith("ae")) {
+            start = 1;
+        }
+        StringBuilder key = new StringBuilder(word.length());
+        for (int i = start; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (i > start && c == word.charAt(i - 1) && c != 'c') {
+                continue;
+            }
+            char next = i + 1 < word.length() ? word.charAt(i + 1) : 0;
+            char previous = i > start ? word.charAt(i - 1) : 0;
+            switch (c) {
+                case 'a': case 'e': case 'i': case 'o': case 'u':
+                    if (i == start) {
+                        emit(key, 'A');
+                    }
+                    break;
+                case 'b':
+                    if (!(previous == 'm' && next == 0)) {
+                        emit(key, 'B');
+                    }
+                    break;
+                case 'c':
+                    if (previous == 's' && next == 'h') {
+                        emit(key, 'K');
+                    } else if (next == 'h' || (next == 'i' && at(word, i + 2) == 'a')) {
+                        emit(key, 'X');
+                    } else if (next == 'i' || next == 'e' || next == 'y') {
+                        emit(key, 'S');
+                    } else {
+                        emit(key, 'K');
+                    }
+                    break;
+                case 'd':
+                    if (next == 'g' && isFrontVowel(at(word, i + 2))) {
+                        emit(key, 'J');
+                    } else {
+                        emit(key, 'T');
+                    }
+                    break;
+                case 'g':
+                    if (next == 'h' && i + 2 < word.length() && !isVowel(at(word, i + 2))) {
+                        break;
+                    }
+                    if (next == 'n' && (i + 2 == word.length() || word.startsWith("ed", i + 2))) {
+                        break;
+                    }
+                    if (previous == 'd' && isFrontVowel(next)) {
+                        break;
+                    }
+                    emit(key, isFrontVowel(next) ? 'J' : 'K');
+                    break;
+                case 'h':
+                    if (isVowel(next) && "cgpst".indexOf(previous) < 0) {
+                        emit(key, 'H');
+                    }
+                    break;
+                case 'k':
+                    if (previous != 'c') {
+                        emit(key, 'K');
+                    }
+                    break;
+                case 'p':
+                    emit(key, next == 'h' ? 'F' : 'P');
+                    break;
+                case 'q':
+                    emit(key, 'K');
+                    break;
+                case 's':
+                    if (next == 'h' || (next == 'i' && (at(word, i + 2) == 'o' || at(word, i + 2) == 'a'))) {
+                        emit(key, 'X');
+                    } else {
+                        emit(key, 'S');
+                    }
+                    break;
+                case 't':
+                    if (next == 'i' && (at(word, i + 2) == 'o' || at(word, i + 2) == 'a')) {
+                        emit(key, 'X');
+                    } else if (next == 'h') {
+                        emit(key, '0');
+                    } else if (!(next == 'c' && at(word, i + 2) == 'h')) {
+                        emit(key, 'T');
+                    }
+                    break;
+                case 'v':
+                    emit(key, 'F');
+                    break;
+                case 'w':
+                case 'y':
+                    if (isVowel(next)) {
+                        emit(key, Character.toUpperCase(c));
+                    }
+                    break;
+                case 'x':
+                    if (i == start) {
+                        emit(key, 'S');
+                    } else {
+                        emit(key, 'K');
+                        emit(key, 'S');
+                    }
+                    break;
+                case 'z':
+                    emit(key, 'S');
+                    break;
+                default:
+                    emit(key, Character.toUpperCase(c));
+            }
+        }
+        return key.toString();
+    }
+
+    // Repeated sounds count once, as in "dt" or "ck"
+    private static void emit(StringBuilder key, char code) {
+        if (key.length() == 0 || key.charAt(key.length() - 1) != code) {
+            key.append(code);
+        }
+    }
+
+    private static char at(String word, int index) {
+        return index < word.length() ? word.charAt(index) : 0;
+    }
+
+    private static boolean isVowel(char c) {
+        return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u';
+    }
+
+    private static boolean isFrontVowel(char c) {
+        return c == 'e' || c == 'i' || c == 'y';
+    }
+}
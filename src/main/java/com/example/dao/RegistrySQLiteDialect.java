@@ -0,0 +1,45 @@
+package com.example.dao;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.model.relational.SqlStringGenerationContext;
+import org.hibernate.community.dialect.SQLiteDialect;
+import org.hibernate.dialect.unique.AlterTableUniqueDelegate;
+import org.hibernate.dialect.unique.UniqueDelegate;
+import org.hibernate.mapping.Index;
+import org.hibernate.mapping.UniqueKey;
+
+/**
+ * SQLite dialect for the registry schema.
+ *
+ * SQLite cannot add constraints with ALTER TABLE, so unique keys are created
+ * as unique indexes instead.
+ */
+public class RegistrySQLiteDialect extends SQLiteDialect {
+
+    private final UniqueDelegate uniqueDelegate = new UniqueIndexDelegate(this);
+
+    @Override
+    public UniqueDelegate getUniqueDelegate() {
+        return uniqueDelegate;
+    }
+
+    private static class UniqueIndexDelegate extends AlterTableUniqueDelegate {
+
+        UniqueIndexDelegate(SQLiteDialect dialect) {
+            super(dialect);
+        }
+
+        @Override
+        public String getAlterTableToAddUniqueKeyCommand(UniqueKey uniqueKey, Metadata metadata,
+                                                         SqlStringGenerationContext context) {
+            return Index.buildSqlCreateIndexString(context, uniqueKey.getName(), uniqueKey.getTable(),
+                    uniqueKey.getColumns(), uniqueKey.getColumnOrderMap(), true, metadata);
+        }
+
+        @Override
+        public String getAlterTableToDropUniqueKeyCommand(UniqueKey uniqueKey, Metadata metadata,
+                                                          SqlStringGenerationContext context) {
+            return "drop index if exists " + uniqueKey.getName();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.dao;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version of the registry as a whole, moved forward after every committed save or delete.
+ *
+ * Responses derived from many citizens, such as listings, are tagged with it: as long as
+ * the version is unchanged, so are they, and a conditional request can be answered
+ * without a query. The version lives in memory and starts over on restart, so these tags
+ * also carry an id of this run to keep them from matching tags handed out before. Tags of
+ * single citizens are built from their stored version instead and need no such id.
+ */
+public final class RegistryVersion {
+
+    public static final String BOOT_ID = UUID.randomUUID().toString().substring(0, 8);
+
+    private static final AtomicLong VERSION = new AtomicLong();
+    private static final Object CHANGED = new Object();
+
+    private RegistryVersion() {}
+
+    /**
+     * Current version. Read it before querying, so a tag is never newer than the data it labels.
+     */
+    public static long current() {
+        return VERSION.get();
+    }
+
+    /**
+     * Wait until the version differs from the one given or the timeout passes,
+     * and return the version then
+     */
+    public static long awaitChange(long seen, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (CHANGED) {
+            long current;
+            while ((current = VERSION.get()) == seen) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(CHANGED, remaining);
+            }
+            return current;
+        }
+    }
+
+    static void increment() {
+        VERSION.incrementAndGet();
+        synchronized (CHANGED) {
+            CHANGED.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.dao;
+
+import com.example.config.AppConfig;
+import com.example.metrics.Metrics;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Pooled SQLite connections for Hibernate, split into a single writer and a pool of readers.
+ *
+ * The database runs in WAL mode, so readers never wait for the writer. SQLite allows
+ * one writer at a time anyway; funnelling writes through one connection makes them
+ * queue in the pool instead of failing with SQLITE_BUSY. Work wrapped in
+ * {@link #readOnly(Supplier)} gets a connection from the read pool, which is opened
+ * with query_only so it cannot modify data.
+ *
+ * Every setting can be given in persistence.xml or overridden through AppConfig.
+ * A shard of a sharded registry (citizen.db.shard set) uses a file of its own next to
+ * the configured one, see {@link #shardUrl(String, int)}.
+ */
+public class SQLiteConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+
+    public static final String URL = "citizen.db.url";
+    public static final String READER_POOL_SIZE = "citizen.db.reader-pool-size";
+    public static final String CONNECTION_TIMEOUT_MS = "citizen.db.connection-timeout-ms";
+    public static final String BUSY_TIMEOUT_MS = "citizen.db.busy-timeout-ms";
+    public static final String SYNCHRONOUS = "citizen.db.synchronous";
+    public static final String CACHE_SIZE_KIB = "citizen.db.cache-size-kib";
+    public static final String MMAP_SIZE = "citizen.db.mmap-size";
+    // Set per EntityManagerFactory by HibernateCitizenDAO, not configuration
+    static final String SHARD = "citizen.db.shard";
+    static final String SHARD_COUNT = "citizen.db.shard-count";
+
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+
+    private HikariDataSource writer;
+    private HikariDataSource readers;
+
+    /**
+     * Run database work on a connection from the read-only pool
+     */
+    public static <T> T readOnly(Supplier<T> work) {
+        if (Boolean.TRUE.equals(READ_ONLY.get())) {
+            return work.get();
+        }
+        READ_ONLY.set(Boolean.TRUE);
+        try {
+            return work.get();
+        } finally {
+            READ_ONLY.remove();
+        }
+    }
+
+    @Override
+    public void configure(Map<String, Object> settings) {
+        String url = setting(settings, URL, String.valueOf(settings.get("hibernate.connection.url")));
+        String poolSuffix = "";
+        Object shard = settings.get(SHARD);
+        if (shard != null) {
+            url = shardUrl(url, Integer.parseInt(shard.toString()));
+            poolSuffix = "-" + shard;
+        }
+        int readerPoolSize = Integer.parseInt(setting(settings, READER_POOL_SIZE,
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        long connectionTimeout = Long.parseLong(setting(settings, CONNECTION_TIMEOUT_MS, "30000"));
+
+        SQLiteConfig sqlite = new SQLiteConfig();
+        sqlite.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        // NORMAL is durable in WAL mode except for the last commits on power loss, and skips an fsync per commit
+        sqlite.setSynchronous(SQLiteConfig.SynchronousMode.valueOf(setting(settings, SYNCHRONOUS, "NORMAL")));
+        sqlite.setBusyTimeout(Integer.parseInt(setting(settings, BUSY_TIMEOUT_MS, "5000")));
+        // A negative cache_size is in KiB rather than pages
+        sqlite.setCacheSize(-Integer.parseInt(setting(settings, CACHE_SIZE_KIB, "16384")));
+        sqlite.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, setting(settings, MMAP_SIZE, "268435456"));
+        sqlite.setTempStore(SQLiteConfig.TempStore.MEMORY);
+
+        writer = createPool("citizen-writer" + poolSuffix, url, sqlite, 1, connectionTimeout, false);
+        readers = createPool("citizen-reader" + poolSuffix, url, sqlite, readerPoolSize, connectionTimeout, true);
+    }
+
+    /**
+     * URL of a shard's file: the shard number goes before the extension of the file
+     * name, so jdbc:sqlite:citizens.db gives jdbc:sqlite:citizens-2.db for shard 2
+     */
+    static String shardUrl(String url, int shard) {
+        int query = url.indexOf('?');
+        String path = query < 0 ? url : url.substring(0, query);
+        String rest = query < 0 ? "" : url.substring(query);
+        int dot = path.lastIndexOf('.');
+        if (dot <= path.lastIndexOf('/') || dot <= path.lastIndexOf(':')) {
+            return path + "-" + shard + rest;
+        }
+        return path.substring(0, dot) + "-" + shard + path.substring(dot) + rest;
+    }
+
+    private static HikariDataSource createPool(String name, String url, SQLiteConfig sqlite,
+                                               int size, long connectionTimeout, boolean readOnly) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(name);
+        config.setJdbcUrl(url);
+        config.setDataSourceProperties(sqlite.toProperties());
+        config.setMaximumPoolSize(size);
+        config.setMinimumIdle(size);
+        config.setConnectionTimeout(connectionTimeout);
+        // SQLite connections are local files, they never go stale
+        config.setMaxLifetime(0);
+        config.setIdleTimeout(0);
+        if (readOnly) {
+            config.setConnectionInitSql("PRAGMA query_only = 1");
+        }
+        // hikaricp_connections_acquire_seconds is the time callers wait for a connection
+        config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(Metrics.REGISTRY));
+        return new HikariDataSource(config);
+    }
+
+    private static String setting(Map<String, Object> settings, String key, String defaultValue) {
+        Object configured = settings.get(key);
+        return AppConfig.getString(key, configured != null ? configured.toString() : defaultValue);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return Boolean.TRUE.equals(READ_ONLY.get()) ? readers.getConnection() : writer.getConnection();
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        connection.close();
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    @Override
+    public boolean isUnwrappableAs(Class<?> unwrapType) {
+        return unwrapType.isInstance(this);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (unwrapType.isInstance(this)) {
+            return unwrapType.cast(this);
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+    @Override
+    public void stop() {
+        if (readers != null) {
+            readers.close();
+        }
+        if (writer != null) {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.dao;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Versioned schema of a registry file, applied on boot instead of letting Hibernate
+ * recreate the tables.
+ *
+ * schema_version lists the migrations a file has had; only the missing ones run, each
+ * in its own transaction together with its schema_version row. A file that already has
+ * the tables, e.g. from a boot with hibernate.hbm2ddl.auto=create, is taken over as it
+ * is: every statement is written to be a no-op when its object exists. Migrations are
+ * only ever appended, a released one never changes.
+ */
+final class SchemaMigrations {
+
+    private static final String CREATE_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS schema_version ("
+            + "version INTEGER PRIMARY KEY, description TEXT NOT NULL, applied_at INTEGER NOT NULL)";
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final String[] statements;
+
+        Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+
+    private static final List<Migration> MIGRATIONS = List.of(
+        // As Hibernate creates it from Citizen
+        new Migration(1, "citizens table",
+            "CREATE TABLE IF NOT EXISTS citizens (id bigint not null, version bigint not null, "
+                + "name varchar(100) not null, name_key varchar(100) not null, "
+                + "surname varchar(100) not null, surname_key varchar(100) not null, primary key (id))",
+            "CREATE UNIQUE INDEX IF NOT EXISTS ux_citizens_full_name ON citizens (name_key, surname_key)",
+            "CREATE INDEX IF NOT EXISTS idx_citizens_surname_key ON citizens (surname_key)"),
+        new Migration(2, "change log", ChangeLog.DDL),
+        new Migration(3, "full-text index", concat(FullTextIndex.DDL, FullTextIndex.REBUILD)),
+        new Migration(4, "citizen id high-water mark", CitizenIds.DDL)
+    );
+
+    private SchemaMigrations() {}
+
+    /**
+     * Bring the schema up to the latest version, returning how many migrations ran
+     */
+    static int migrate(EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.createNativeQuery(CREATE_VERSION_TABLE).executeUpdate();
+            int current = ((Number) em.createNativeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")
+                    .getSingleResult()).intValue();
+            em.getTransaction().commit();
+            if (current > latest()) {
+                throw new IllegalStateException("The database is at schema version " + current
+                        + ", this build only knows up to " + latest());
+            }
+            int applied = 0;
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version > current) {
+                    apply(em, migration);
+                    applied++;
+                }
+            }
+            return applied;
+        } catch (RuntimeException e) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            throw e instanceof IllegalStateException ? e : new IllegalStateException("Could not migrate the schema", e);
+        } finally {
+            em.close();
+        }
+    }
+
+    static int latest() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    private static void apply(EntityManager em, Migration migration) {
+        em.getTransaction().begin();
+        for (String statement : migration.statements) {
+            em.createNativeQuery(statement).executeUpdate();
+        }
+        em.createNativeQuery("INSERT INTO schema_version(version, description, applied_at) "
+                + "VALUES (:version, :description, " + ChangeLog.NOW + ")")
+            .setParameter("version", migration.version)
+            .setParameter("description", migration.description)
+            .executeUpdate();
+        em.getTransaction().commit();
+    }
+
+    private static String[] concat(String[] statements, String last) {
+        String[] all = Arrays.copyOf(statements, statements.length + 1);
+        all[statements.length] = last;
+        return all;
+    }
+}
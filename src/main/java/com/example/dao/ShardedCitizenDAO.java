@@ -0,0 +1,462 @@
+package com.example.dao;
+
+import com.example.entity.Citizen;
+import com.example.entity.CitizenChange;
+import com.example.exception.CitizenRenameConflictException;
+import com.example.metrics.Metrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * CitizenDAO spreading the registry over several SQLite files, each served by a
+ * HibernateCitizenDAO with its own EntityManagerFactory, pools and caches. Every file
+ * has its own writer, so writes to different shards no longer queue behind each other.
+ *
+ * A citizen lives in the shard picked by a hash of its normalized full name, which
+ * keeps the duplicate check within one shard. Ids encode the shard as the remainder
+ * of a division by the shard count, so lookups by id go to one shard. Other queries
+ * run on all shards at once and their results are merged. Ids never change, so a
+ * rename to a name that belongs in another shard is refused with
+ * CitizenRenameConflictException. The shard count cannot change once citizens are
+ * stored.
+ *
+ * saveAll has no transaction spanning the shards: when a shard rejects its part, the
+ * parts other shards already stored are deleted again, which a crash can interrupt.
+ *
+ * The change log merges those of the shards by time, keeping each shard's commit
+ * order, into the last changeHistory entries kept in memory. Its numbering continues from the
+ * sum of the shard logs at startup, so it keeps growing across restarts; a follower
+ * from before a restart gets a RESET.
+ */
+public class ShardedCitizenDAO implements CitizenDAO {
+
+    private static final Comparator<Citizen> BY_ID = Comparator.comparing(Citizen::getId);
+    private static final Comparator<Citizen> BY_SURNAME = Comparator
+        .comparing((Citizen citizen) -> Citizen.normalizeKey(citizen.getSurname()))
+        .thenComparing(Citizen::getId);
+    // Shard log entries read per query while merging them
+    private static final int CHANGE_BATCH_SIZE = 1000;
+
+    private final HibernateCitizenDAO[] shards;
+    private final ExecutorService scatter;
+    // Merged change log and how far each shard's log is merged, guarded by history
+    private final ChangeHistory history;
+    private final long[] mergedSeq;
+
+    public ShardedCitizenDAO(int shardCount, int scatterThreads, int changeHistory) {
+        this(null, shardCount, scatterThreads, changeHistory);
+    }
+
+    /**
+     * Shards next to the file of the given URL rather than the configured one
+     */
+    ShardedCitizenDAO(String url, int shardCount, int scatterThreads, int changeHistory) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        shards = new HibernateCitizenDAO[shardCount];
+        try {
+            for (int shard = 0; shard < shardCount; shard++) {
+                shards[shard] = new HibernateCitizenDAO(url, shard, shardCount);
+            }
+        } catch (RuntimeException e) {
+            for (HibernateCitizenDAO opened : shards) {
+                if (opened != null) {
+                    opened.close();
+                }
+            }
+            throw e;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = task -> {
+            Thread thread = new Thread(task, "citizen-shard-scatter-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // Callers are bounded by the request executors, so the queue need not be
+        scatter = ExecutorServiceMetrics.monitor(Metrics.REGISTRY, new ThreadPoolExecutor(scatterThreads, scatterThreads,
+            0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), factory), "citizen-shard-scatter");
+        mergedSeq = new long[shardCount];
+        long total = 0;
+        for (int shard = 0; shard < shardCount; shard++) {
+            mergedSeq[shard] = shards[shard].latestChangeSeq();
+            total += mergedSeq[shard];
+        }
+        history = new ChangeHistory(changeHistory, total);
+    }
+
+    @Override
+    public Citizen save(Citizen citizen) {
+        int home = home(citizen.getName(), citizen.getSurname());
+        if (citizen.getId() == null || shardOf(citizen.getId()) == home) {
+            return shards[home].save(citizen);
+        }
+        if (shards[shardOf(citizen.getId())].findById(citizen.getId()) != null) {
+            throw new CitizenRenameConflictException("Citizen " + citizen.getId()
+                + " cannot be renamed to " + citizen.getName() + " " + citizen.getSurname()
+                + " without changing its id; register the new name as a new citizen instead");
+        }
+        // Like a merge, an id that is not registered (anymore) gets a new one
+        citizen.setId(null);
+        citizen.setVersion(null);
+        return shards[home].save(citizen);
+    }
+
+    @Override
+    public List<Citizen> saveAll(List<Citizen> citizens) {
+        List<List<Citizen>> parts = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Citizen citizen : citizens) {
+            parts.get(home(citizen.getName(), citizen.getSurname())).add(citizen);
+        }
+        List<RuntimeException> failures = all(shard -> {
+            if (parts.get(shard).isEmpty()) {
+                return null;
+            }
+            try {
+                shards[shard].saveAll(parts.get(shard));
+                return null;
+            } catch (RuntimeException e) {
+                return e;
+            }
+        });
+        RuntimeException failure = null;
+        for (RuntimeException shardFailure : failures) {
+            if (shardFailure != null) {
+                failure = shardFailure;
+                break;
+            }
+        }
+        if (failure != null) {
+            for (int shard = 0; shard < shards.length; shard++) {
+                if (failures.get(shard) == null) {
+                    for (Citizen stored : parts.get(shard)) {
+                        shards[shard].delete(stored.getId());
+                    }
+                }
+            }
+            throw failure;
+        }
+        return citizens;
+    }
+
+    @Override
+    public Citizen findById(Long id) {
+        return shards[shardOf(id)].findById(id);
+    }
+
+    @Override
+    public List<Citizen> findByIds(Collection<Long> ids) {
+        List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<List<Long>> parts = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Long id : distinctIds) {
+            parts.get(shardOf(id)).add(id);
+        }
+        Map<Long, Citizen> found = new HashMap<>();
+        for (List<Citizen> part : all(shard -> shards[shard].findByIds(parts.get(shard)))) {
+            for (Citizen citizen : part) {
+                found.put(citizen.getId(), citizen);
+            }
+        }
+        List<Citizen> citizens = new ArrayList<>(found.size());
+        for (Long id : distinctIds) {
+            Citizen citizen = found.get(id);
+            if (citizen != null) {
+                citizens.add(citizen);
+            }
+        }
+        return citizens;
+    }
+
+    @Override
+    public List<Citizen> findAll() {
+        return merge(all(shard -> shards[shard].findAll()), BY_ID);
+    }
+
+    @Override
+    public boolean existsByFullName(String name, String surname, Long excludeId) {
+        return shards[home(name, surname)].existsByFullName(name, surname, excludeId);
+    }
+
+    @Override
+    public List<Citizen> findByFullName(String name, String surname) {
+        return shards[home(name, surname)].findByFullName(name, surname);
+    }
+
+    @Override
+    public List<Citizen> findBySurname(String surname) {
+        return merge(all(shard -> shards[shard].findBySurname(surname)), BY_ID);
+    }
+
+    @Override
+    public List<Citizen> findBySurnamePrefix(String prefix) {
+        return merge(all(shard -> shards[shard].findBySurnamePrefix(prefix)), BY_SURNAME);
+    }
+
+    @Override
+    public long count() {
+        long count = 0;
+        for (long shardCount : all(shard -> shards[shard].count())) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    @Override
+    public boolean existsAny() {
+        return all(shard -> shards[shard].existsAny()).contains(Boolean.TRUE);
+    }
+
+    /**
+     * The first limit citizens after afterId of every shard, merged and cut to limit
+     */
+    @Override
+    public List<Citizen> findPage(Long afterId, int limit) {
+        List<Citizen> page = merge(all(shard -> shards[shard].findPage(afterId, limit)), BY_ID);
+        return page.size() > limit ? new ArrayList<>(page.subList(0, limit)) : page;
+    }
+
+    /**
+     * Pages through the shards with {@link #findPage}, fetchSize citizens at a time
+     */
+    @Override
+    public long streamAll(int fetchSize, Consumer<Citizen> consumer) {
+        long count = 0;
+        Long afterId = null;
+        while (true) {
+            List<Citizen> page = findPage(afterId, fetchSize);
+            for (Citizen citizen : page) {
+                consumer.accept(citizen);
+            }
+            count += page.size();
+            if (page.size() < fetchSize) {
+                return count;
+            }
+            afterId = page.get(page.size() - 1).getId();
+        }
+    }
+
+    @Override
+    public List<Citizen> findByName(String name) {
+        return merge(all(shard -> shards[shard].findByName(name)), BY_ID);
+    }
+
+    /**
+     * The best matches of every shard, taken in turns. Ranks are only comparable
+     * within a shard, so a shard's results keep their order.
+     */
+    @Override
+    public List<Citizen> search(String text, int limit) {
+        List<List<Citizen>> parts = all(shard -> shards[shard].search(text, limit));
+        List<Citizen> results = new ArrayList<>(limit);
+        for (int rank = 0; results.size() < limit; rank++) {
+            boolean more = false;
+            for (List<Citizen> part : parts) {
+                if (rank < part.size() && results.size() < limit) {
+                    results.add(part.get(rank));
+                    more = true;
+                }
+            }
+            if (!more) {
+                break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Ranked across shards: the fuzzy index scores are the same on every shard
+     */
+    @Override
+    public List<Citizen> fuzzySearch(String text, int limit) {
+        long start = System.nanoTime();
+        try {
+            List<FuzzyNameIndex.Hit> hits = new ArrayList<>();
+            for (List<FuzzyNameIndex.Hit> part : all(shard -> shards[shard].fuzzyIndex().rank(text, limit))) {
+                hits.addAll(part);
+            }
+            hits.sort(Collections.reverseOrder());
+            List<Long> ids = new ArrayList<>(Math.min(limit, hits.size()));
+            for (int i = 0; i < hits.size() && i < limit; i++) {
+                ids.add(hits.get(i).id);
+            }
+            return findByIds(ids);
+        } finally {
+            DaoMetrics.recordCall("fuzzySearch", start);
+        }
+    }
+
+    @Override
+    public List<CitizenChange> findChangesAfter(long seq, int limit) {
+        synchronized (history) {
+            mergeChanges();
+            return history.after(seq, limit);
+        }
+    }
+
+    @Override
+    public long latestChangeSeq() {
+        synchronized (history) {
+            mergeChanges();
+            return history.lastSeq();
+        }
+    }
+
+    /**
+     * Append what the shard logs gained since the last merge, renumbered. A shard's
+     * RESET only marks its table being recreated at startup; the merged log was
+     * started over then anyway.
+     */
+    private void mergeChanges() {
+        List<List<CitizenChange>> parts = all(shard -> {
+            List<CitizenChange> changes = new ArrayList<>();
+            long after = mergedSeq[shard];
+            while (true) {
+                List<CitizenChange> batch = shards[shard].findChangesAfter(after, CHANGE_BATCH_SIZE);
+                changes.addAll(batch);
+                if (batch.size() < CHANGE_BATCH_SIZE) {
+                    return changes;
+                }
+                after = batch.get(batch.size() - 1).getSeq();
+            }
+        });
+        // Oldest first across shards, keeping each shard's own order
+        int[] next = new int[shards.length];
+        while (true) {
+            int oldest = -1;
+            for (int shard = 0; shard < shards.length; shard++) {
+                if (next[shard] < parts.get(shard).size() && (oldest < 0
+                        || parts.get(shard).get(next[shard]).getChangedAt()
+                            < parts.get(oldest).get(next[oldest]).getChangedAt())) {
+                    oldest = shard;
+                }
+            }
+            if (oldest < 0) {
+                return;
+            }
+            CitizenChange change = parts.get(oldest).get(next[oldest]++);
+            mergedSeq[oldest] = change.getSeq();
+            if (change.getType() != CitizenChange.Type.RESET) {
+                history.add(new CitizenChange(history.lastSeq() + 1, change.getType(), change.getCitizenId(),
+                    change.getName(), change.getSurname(), change.getVersion(), change.getChangedAt()));
+            }
+        }
+    }
+
+    @Override
+    public boolean delete(Long id) {
+        return shards[shardOf(id)].delete(id);
+    }
+
+    /**
+     * Warms every shard, not just the ones the lookups of a single citizen reach
+     */
+    @Override
+    public void warmUp() {
+        for (HibernateCitizenDAO shard : shards) {
+            shard.warmUp();
+        }
+        latestChangeSeq();
+    }
+
+    @Override
+    public void close() {
+        scatter.shutdown();
+        for (HibernateCitizenDAO shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Shard of a full name; String.hashCode is specified, so it never changes
+     */
+    private int home(String name, String surname) {
+        String key = Citizen.normalizeKey(name) + '\n' + Citizen.normalizeKey(surname);
+        return Math.floorMod(key.hashCode(), shards.length);
+    }
+
+    private int shardOf(long id) {
+        return (int) Math.floorMod(id, (long) shards.length);
+    }
+
+    /**
+     * Run the work for every shard at once, the last one on the calling thread.
+     * Returns the results by shard, or throws the first failure once all are done.
+     */
+    private <T> List<T> all(IntFunction<T> work) {
+        List<Future<T>> futures = new ArrayList<>(shards.length - 1);
+        for (int shard = 0; shard < shards.length - 1; shard++) {
+            int target = shard;
+            futures.add(scatter.submit(() -> work.apply(target)));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        RuntimeException failure = null;
+        T own = null;
+        try {
+            own = work.apply(shards.length - 1);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        boolean interrupted = false;
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                interrupted = true;
+                failure = failure != null ? failure : new IllegalStateException("Interrupted waiting for a shard", e);
+                results.add(null);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                failure = failure != null ? failure
+                    : cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                results.add(null);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        results.add(own);
+        return results;
+    }
+
+    private static List<Citizen> merge(List<List<Citizen>> parts, Comparator<Citizen> order) {
+        int size = 0;
+        for (List<Citizen> part : parts) {
+            size += part.size();
+        }
+        List<Citizen> merged = new ArrayList<>(size);
+        for (List<Citizen> part : parts) {
+            merged.addAll(part);
+        }
+        merged.sort(order);
+        return merged;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Full copy of the in-memory registry as of one write-ahead log sequence number.
+ *
+ * Written to a temporary file, fsynced and renamed into place, so a snapshot file is
+ * either complete or absent; a trailing CRC32 catches anything else. Older snapshots
+ * are deleted only once a newer one is in place.
+ */
+final class SnapshotFile {
+
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int MAGIC = 0x435a524e;
+    private static final int FORMAT = 1;
+
+    /**
+     * A snapshot read back: the citizens in id order and where the log continues
+     */
+    static final class Loaded {
+        final long seq;
+        final long lastId;
+        final List<InMemoryCitizenDAO.Stored> citizens;
+
+        Loaded(long seq, long lastId, List<InMemoryCitizenDAO.Stored> citizens) {
+            this.seq = seq;
+            this.lastId = lastId;
+            this.citizens = citizens;
+        }
+    }
+
+    private SnapshotFile() {}
+
+    static void write(Path dir, long seq, long lastId, InMemoryCitizenDAO.Stored[] citizens, boolean fsync)
+            throws IOException {
+        Path target = dir.resolve(name(seq));
+        Path temporary = dir.resolve(name(seq) + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            BufferedOutputStream buffered = new BufferedOutputStream(file, 1 << 16);
+            CheckedOutputStream checked = new CheckedOutputStream(buffered, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(seq);
+            out.writeLong(lastId);
+            out.writeInt(citizens.length);
+            for (InMemoryCitizenDAO.Stored citizen : citizens) {
+                out.writeLong(citizen.id);
+                out.writeLong(citizen.version);
+                out.writeUTF(citizen.name);
+                out.writeUTF(citizen.surname);
+            }
+            out.flush();
+            new DataOutputStream(buffered).writeLong(checked.getChecksum().getValue());
+            buffered.flush();
+            if (fsync) {
+                file.getFD().sync();
+            }
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        if (fsync) {
+            WriteAheadLog.syncDirectory(dir);
+        }
+    }
+
+    /**
+     * The newest snapshot, or null when there is none. A damaged one is an error rather
+     * than a reason to fall back: the log segments before it may already be gone.
+     */
+    static Loaded loadLatest(Path dir) throws IOException {
+        List<Path> snapshots = snapshots(dir);
+        return snapshots.isEmpty() ? null : read(snapshots.get(snapshots.size() - 1));
+    }
+
+    /**
+     * Delete the snapshots older than seq, and temporary files left by a crash
+     */
+    static void deleteBefore(Path dir, long seq) throws IOException {
+        for (Path snapshot : snapshots(dir)) {
+            if (seq(snapshot) < seq) {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(PREFIX) && name.endsWith(SUFFIX + ".tmp")) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static Loaded read(Path snapshot) throws IOException {
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16)) {
+            CheckedInputStream checked = new CheckedInputStream(file, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                throw new IOException("Not a registry snapshot: " + snapshot);
+            }
+            long seq = in.readLong();
+            long lastId = in.readLong();
+            int count = in.readInt();
+            List<InMemoryCitizenDAO.Stored> citizens = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                long version = in.readLong();
+                String name = in.readUTF();
+                String surname = in.readUTF();
+                citizens.add(InMemoryCitizenDAO.Stored.of(id, version, name, surname));
+            }
+            long expected = checked.getChecksum().getValue();
+            if (new DataInputStream(file).readLong() != expected) {
+                throw new IOException("Registry snapshot " + snapshot + " is damaged");
+            }
+            return new Loaded(seq, lastId, citizens);
+        }
+    }
+
+    private static List<Path> snapshots(Path dir) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).forEach(snapshots::add);
+        }
+        snapshots.sort((a, b) -> Long.compare(seq(a), seq(b)));
+        return snapshots;
+    }
+
+    private static long seq(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static String name(long seq) {
+        return String.format("%s%020d%s", PREFIX, seq, SUFFIX);
+    }
+}
@@ -0,0 +1,351 @@
+package com.example.dao;
+
+import com.example.entity.CitizenChange;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the writes to InMemoryCitizenDAO.
+ *
+ * Records go to segment files named after the sequence number of their first record,
+ * a new segment being started at every boot and every snapshot. Each record is framed
+ * with its length and a CRC32, so replay stops cleanly at a record torn by a crash and
+ * cuts it off.
+ *
+ * append only hands the bytes to the file; sync makes everything appended so far
+ * durable with one fsync. Callers that arrive while an fsync runs wait for it and
+ * share the next one, so under load many writes are acknowledged per fsync.
+ */
+final class WriteAheadLog implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    /**
+     * One logged change, with the citizen as it is after it; no names for a delete
+     */
+    static final class Entry {
+        final long seq;
+        final CitizenChange.Type type;
+        final long id;
+        final long version;
+        final String name;
+        final String surname;
+        final long timestamp;
+
+        Entry(long seq, CitizenChange.Type type, long id, long version, String name, String surname, long timestamp) {
+            this.seq = seq;
+            this.type = type;
+            this.id = id;
+            this.version = version;
+            this.name = name;
+            this.surname = surname;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final Path dir;
+    private final boolean fsync;
+    // Guards the channel swap on rotation and the fsync bookkeeping
+    private final Object syncLock = new Object();
+    // Appends come from one thread at a time (the DAO's write lock), these are only used there
+    private final ByteArrayOutputStream frames = new ByteArrayOutputStream(256);
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+    private final CRC32 crc = new CRC32();
+
+    private FileChannel channel;
+    private long segmentFirstSeq;
+    private volatile long segmentBytes;
+    private volatile long appendedSeq;
+    private long syncedSeq;
+    private volatile boolean failed;
+
+    WriteAheadLog(Path dir, boolean fsync) {
+        this.dir = dir;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Pass every record after afterSeq to the consumer, in order, and cut off a torn
+     * record at the end of the last segment. Returns the sequence number of the last record.
+     */
+    long replay(long afterSeq, Consumer<Entry> consumer) throws IOException {
+        List<Path> segments = segments(dir);
+        long last = afterSeq;
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            long validBytes = 0;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(segment), 1 << 16)) {
+                DataInputStream data = new DataInputStream(in);
+                while (true) {
+                    Framed record = readRecord(data);
+                    if (record == null) {
+                        break;
+                    }
+                    validBytes += Integer.BYTES * 2 + record.length;
+                    if (record.entry.seq > last) {
+                        consumer.accept(record.entry);
+                        last = record.entry.seq;
+                    }
+                }
+            }
+            long size = Files.size(segment);
+            if (validBytes < size) {
+                if (i < segments.size() - 1) {
+                    throw new IOException("Write-ahead log segment " + segment + " is damaged at byte " + validBytes);
+                }
+                try (FileChannel torn = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    torn.truncate(validBytes);
+                    torn.force(true);
+                }
+            }
+        }
+        appendedSeq = last;
+        syncedSeq = last;
+        return last;
+    }
+
+    /**
+     * Continue in a new segment whose first record will be firstSeq. The current one is
+     * made durable and closed first; nothing happens if no record was appended to it.
+     */
+    void startSegment(long firstSeq) throws IOException {
+        synchronized (syncLock) {
+            if (channel != null) {
+                if (firstSeq == segmentFirstSeq) {
+                    return;
+                }
+                if (fsync) {
+                    channel.force(false);
+                }
+                syncedSeq = appendedSeq;
+                channel.close();
+                channel = null;
+            }
+            // A file of that name can only hold a torn record that replay already dropped
+            channel = FileChannel.open(dir.resolve(segmentName(firstSeq)), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            if (fsync) {
+                syncDirectory(dir);
+            }
+            segmentFirstSeq = firstSeq;
+            segmentBytes = 0;
+        }
+    }
+
+    /**
+     * Write the entries to the current segment. Not durable until sync.
+     * Callers must not append concurrently.
+     */
+    void append(List<Entry> entries) {
+        checkUsable();
+        frames.reset();
+        try {
+            DataOutputStream out = new DataOutputStream(frames);
+            for (Entry entry : entries) {
+                byte[] record = encode(entry);
+                crc.reset();
+                crc.update(record);
+                out.writeInt(record.length);
+                out.writeInt((int) crc.getValue());
+                out.write(record);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(frames.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            // A partly written record would hide everything appended after it on replay
+            failed = true;
+            throw new UncheckedIOException("Could not write to the write-ahead log", e);
+        }
+        segmentBytes += frames.size();
+        appendedSeq = entries.get(entries.size() - 1).seq;
+    }
+
+    /**
+     * Return once the record with this sequence number is on disk
+     */
+    void sync(long seq) {
+        if (!fsync) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedSeq >= seq) {
+                return;
+            }
+            checkUsable();
+            long target = appendedSeq;
+            long start = System.nanoTime();
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                failed = true;
+                throw new UncheckedIOException("Could not sync the write-ahead log", e);
+            }
+            DaoMetrics.recordCommit("wal", start);
+            DaoMetrics.GROUP_SIZE.record(target - syncedSeq);
+            syncedSeq = target;
+        }
+    }
+
+    /**
+     * Bytes written to the current segment
+     */
+    long segmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * Delete the segments that start before firstSeq, except the current one
+     */
+    void deleteSegmentsBefore(long firstSeq) throws IOException {
+        long current;
+        synchronized (syncLock) {
+            current = segmentFirstSeq;
+        }
+        for (Path segment : segments(dir)) {
+            long segmentSeq = firstSeq(segment);
+            if (segmentSeq < firstSeq && segmentSeq != current) {
+                Files.deleteIfExists(segment);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            if (channel != null) {
+                if (fsync && !failed) {
+                    channel.force(false);
+                }
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * fsync a directory so files just created or renamed in it survive a crash.
+     * Not every platform can open a directory, there it is left to the file system.
+     */
+    static void syncDirectory(Path dir) {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Best effort
+        }
+    }
+
+    private void checkUsable() {
+        if (failed) {
+            throw new IllegalStateException("The write-ahead log failed earlier, restart to recover from it");
+        }
+    }
+
+    private byte[] encode(Entry entry) throws IOException {
+        payload.reset();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeLong(entry.seq);
+        out.writeByte(entry.type.ordinal());
+        out.writeLong(entry.id);
+        out.writeLong(entry.version);
+        out.writeLong(entry.timestamp);
+        out.writeBoolean(entry.name != null);
+        if (entry.name != null) {
+            out.writeUTF(entry.name);
+            out.writeUTF(entry.surname);
+        }
+        return payload.toByteArray();
+    }
+
+    // A record read back, with the size of its payload in the file
+    private static final class Framed {
+        final Entry entry;
+        final int length;
+
+        Framed(Entry entry, int length) {
+            this.entry = entry;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Next record, or null at the end of the segment or at a torn or damaged record
+     */
+    private static Framed readRecord(DataInputStream in) throws IOException {
+        byte[] record;
+        int checksum;
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE) {
+                return null;
+            }
+            checksum = in.readInt();
+            record = new byte[length];
+            in.readFully(record);
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+        long seq = data.readLong();
+        CitizenChange.Type type = CitizenChange.Type.values()[data.readByte()];
+        long id = data.readLong();
+        long version = data.readLong();
+        long timestamp = data.readLong();
+        String name = null;
+        String surname = null;
+        if (data.readBoolean()) {
+            name = data.readUTF();
+            surname = data.readUTF();
+        }
+        return new Framed(new Entry(seq, type, id, version, name, surname, timestamp), record.length);
+    }
+
+    private static List<Path> segments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(WriteAheadLog::isSegment).forEach(segments::add);
+        }
+        segments.sort((a, b) -> Long.compare(firstSeq(a), firstSeq(b)));
+        return segments;
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long firstSeq(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static String segmentName(long firstSeq) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX);
+    }
+}
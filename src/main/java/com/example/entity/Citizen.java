@@ -1,15 +1,31 @@
 package com.example.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
 
 @Entity
-@Table(name = "citizens")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Citizen.CACHE_REGION)
+@Table(name = "citizens", indexes = {
+    @Index(name = "ux_citizens_full_name", columnList = "name_key, surname_key", unique = true),
+    @Index(name = "idx_citizens_surname_key", columnList = "surname_key")
+})
 public class Citizen {
     
+    public static final String CACHE_REGION = "citizens";
+    
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "citizen_id")
+    @GenericGenerator(name = "citizen_id", type = CitizenIdGenerator.class)
     private Long id;
     
     @NotBlank(message = "Name is required")
@@ -22,6 +38,20 @@ public class Citizen {
     @Column(name = "surname", nullable = false, length = 100)
     private String surname;
     
+    // Case- and whitespace-normalized copies of name and surname. They back the unique
+    // full-name index, so duplicate checks are an index lookup and hold under concurrent writers.
+    @Column(name = "name_key", nullable = false, length = 100)
+    private String nameKey;
+    
+    @Column(name = "surname_key", nullable = false, length = 100)
+    private String surnameKey;
+    
+    // Bumped by Hibernate on every update; stale updates fail instead of overwriting.
+    // Not part of the JSON body, clients see it as the ETag.
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version;
+    
     // Default constructor
     public Citizen() {}
     
@@ -56,6 +86,33 @@ public class Citizen {
         this.surname = surname;
     }
     
+    @JsonIgnore
+    public Long getVersion() {
+        return version;
+    }
+    
+    @JsonIgnore
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    
+    @PrePersist
+    @PreUpdate
+    void updateKeys() {
+        nameKey = normalizeKey(name);
+        surnameKey = normalizeKey(surname);
+    }
+    
+    /**
+     * Lookup form of a name: trimmed, inner whitespace collapsed, lower case
+     */
+    public static String normalizeKey(String value) {
+        if (value == null) {
+            return null;
+        }
+        return WHITESPACE.matcher(value.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+    
     @Override
     public String toString() {
         return "Citizen{" +
@@ -0,0 +1,41 @@
+package com.example.entity;
+
+/**
+ * One entry of the change log: a citizen created, updated or deleted, numbered by a
+ * sequence that only grows. Name, surname and version are those after the change and
+ * are null for deletes. A RESET entry means the registry was emptied, so anything
+ * built from earlier entries is stale.
+ */
+public class CitizenChange {
+
+    public enum Type { CREATED, UPDATED, DELETED, RESET }
+
+    private final long seq;
+    private final Type type;
+    private final Long citizenId;
+    private final String name;
+    private final String surname;
+    private final Long version;
+    private final long changedAt;
+
+    public CitizenChange(long seq, Type type, Long citizenId, String name, String surname,
+                         Long version, long changedAt) {
+        this.seq = seq;
+        this.type = type;
+        this.citizenId = citizenId;
+        this.name = name;
+        this.surname = surname;
+        this.version = version;
+        this.changedAt = changedAt;
+    }
+
+    // Getters
+    public long getSeq() { return seq; }
+    public Type getType() { return type; }
+    public Long getCitizenId() { return citizenId; }
+    public String getName() { return name; }
+    public String getSurname() { return surname; }
+    public Long getVersion() { return version; }
+    /** Commit time in epoch milliseconds */
+    public long getChangedAt() { return changedAt; }
+}
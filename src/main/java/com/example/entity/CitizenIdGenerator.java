@@ -0,0 +1,51 @@
+package com.example.entity;
+
+import java.util.Map;
+import java.util.Properties;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+/**
+ * Allocates citizen ids in process, seeded once from MAX(id) or the highest id
+ * deleted before, whichever is higher, so an id is never handed out twice.
+ *
+ * Unlike IDENTITY the id is known before the INSERT runs, which lets Hibernate
+ * group inserts into JDBC batches. The registry is a single process writing to
+ * its own SQLite file, so an in-memory counter is enough to keep ids unique.
+ *
+ * On a shard of a sharded registry only ids leaving the shard number as remainder
+ * of a division by the shard count are handed out, so the id tells the shard.
+ */
+public class CitizenIdGenerator implements IdentifierGenerator {
+
+    private long lastId = -1;
+    private long shard = 0;
+    private long shardCount = 1;
+
+    @Override
+    public void configure(Type type, Properties parameters, ServiceRegistry serviceRegistry) {
+        // Set by HibernateCitizenDAO for each shard, see SQLiteConnectionProvider
+        Map<String, Object> settings = serviceRegistry.getService(ConfigurationService.class).getSettings();
+        if (settings.get("citizen.db.shard") != null) {
+            shard = Long.parseLong(settings.get("citizen.db.shard").toString());
+            shardCount = Long.parseLong(settings.get("citizen.db.shard-count").toString());
+        }
+    }
+
+    @Override
+    public synchronized Object generate(SharedSessionContractImplementor session, Object object) {
+        if (lastId < 0) {
+            // citizen_ids keeps the highest deleted id, see CitizenIds
+            lastId = session
+                    .createNativeQuery("SELECT MAX((SELECT COALESCE(MAX(id), 0) FROM citizens), "
+                            + "(SELECT COALESCE(MAX(high_water), 0) FROM citizen_ids))", Long.class)
+                    .getSingleResult();
+        }
+        long next = lastId + 1;
+        lastId = next + Math.floorMod(shard - next, shardCount);
+        return lastId;
+    }
+}
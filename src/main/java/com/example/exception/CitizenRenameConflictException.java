@@ -0,0 +1,12 @@
+package com.example.exception;
+
+/**
+ * Exception thrown when a citizen cannot take its new name without changing its id,
+ * see ShardedCitizenDAO
+ */
+public class CitizenRenameConflictException extends RuntimeException {
+
+    public CitizenRenameConflictException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.exception;
+
+/**
+ * Exception thrown when a citizen was changed by someone else since it was read
+ */
+public class CitizenVersionConflictException extends RuntimeException {
+
+    public CitizenVersionConflictException(String message) {
+        super(message);
+    }
+
+    public CitizenVersionConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
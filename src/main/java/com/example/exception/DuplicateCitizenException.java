@@ -0,0 +1,15 @@
+package com.example.exception;
+
+/**
+ * Exception thrown when a citizen with the same name and surname is already registered
+ */
+public class DuplicateCitizenException extends CitizenValidationException {
+    
+    public DuplicateCitizenException(String message) {
+        super(message);
+    }
+    
+    public DuplicateCitizenException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
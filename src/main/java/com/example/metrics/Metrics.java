@@ -0,0 +1,49 @@
+package com.example.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.core.instrument.binder.system.UptimeMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+
+/**
+ * Application-wide meter registry, scraped in Prometheus text format from /metrics.
+ *
+ * Timers publish a histogram with buckets from 50µs to 30s, so latency quantiles can be
+ * computed and aggregated across instances on the Prometheus side.
+ */
+public final class Metrics {
+
+    public static final PrometheusMeterRegistry REGISTRY = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+    static {
+        new JvmMemoryMetrics().bindTo(REGISTRY);
+        new JvmGcMetrics().bindTo(REGISTRY);
+        new JvmThreadMetrics().bindTo(REGISTRY);
+        new ProcessorMetrics().bindTo(REGISTRY);
+        new UptimeMetrics().bindTo(REGISTRY);
+    }
+
+    private Metrics() {}
+
+    /**
+     * Latency timer with a percentile histogram, registered on first use
+     */
+    public static Timer timer(String name, String... tags) {
+        return Timer.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(50_000))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(REGISTRY);
+    }
+
+    public static Counter counter(String name, String... tags) {
+        return Counter.builder(name).tags(tags).register(REGISTRY);
+    }
+}
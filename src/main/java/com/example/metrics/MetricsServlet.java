@@ -0,0 +1,20 @@
+package com.example.metrics;
+
+import io.prometheus.client.exporter.common.TextFormat;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves every registered meter in the Prometheus text exposition format
+ */
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(TextFormat.CONTENT_TYPE_004);
+        Metrics.REGISTRY.scrape(response.getWriter());
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.metrics;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.glassfish.jersey.uri.UriTemplate;
+
+/**
+ * Times every REST request into http.server.requests, tagged by method, matched
+ * path template and status. The timer stops once the response has been written,
+ * so streamed bodies such as the export are included.
+ */
+public class RequestMetricsListener implements ApplicationEventListener {
+
+    private static final String METRIC = "http.server.requests";
+    private static final Pattern REPEATED_SLASHES = Pattern.compile("/{2,}");
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        long start = System.nanoTime();
+        return event -> {
+            if (event.getType() == RequestEvent.Type.FINISHED) {
+                long elapsed = System.nanoTime() - start;
+                ContainerResponse response = event.getContainerResponse();
+                int status = response != null ? response.getStatus() : 500;
+                Metrics.timer(METRIC,
+                        "method", event.getContainerRequest().getMethod(),
+                        "uri", template(event),
+                        "status", Integer.toString(status))
+                    .record(elapsed, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+
+    /**
+     * Path template such as /citizens/{id}, so ids do not each become a separate series
+     */
+    private static String template(RequestEvent event) {
+        List<UriTemplate> templates = event.getUriInfo().getMatchedTemplates();
+        if (templates.isEmpty()) {
+            return "UNMATCHED";
+        }
+        StringBuilder path = new StringBuilder();
+        // Matched templates are listed innermost first
+        for (int i = templates.size() - 1; i >= 0; i--) {
+            path.append(templates.get(i).getTemplate());
+        }
+        return REPEATED_SLASHES.matcher(path).replaceAll("/");
+    }
+}
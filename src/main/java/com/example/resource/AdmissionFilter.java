@@ -0,0 +1,241 @@
+package com.example.resource;
+
+import com.example.config.AppConfig;
+import com.example.metrics.Metrics;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Turns requests away before they reach Jersey when a client sends too many, or when
+ * too many expensive ones are already running.
+ *
+ * Each client gets a token bucket for reads and one for writes; an empty bucket is
+ * answered with 429 and a Retry-After of when the next token is due. A client is
+ * known by its API key header when the key is one of citizen.limits.api-keys, else by
+ * its address: unknown keys are not trusted, or a new key per request would get a
+ * fresh budget every time. Listing, searching, exporting, bulk imports and batch gets
+ * also need one of a few permits, held until the response is complete, streamed
+ * bodies included; without one within a short wait the answer is 503 with Retry-After.
+ *
+ * Buckets of clients that stay away until theirs would be full again are dropped, a
+ * new full bucket behaves the same, so only recently active clients take memory. A
+ * size limit on top keeps a flood of distinct clients from growing it without bound.
+ */
+public class AdmissionFilter implements Filter {
+
+    /** Request attribute holding the client a request was counted against, see {@link #client} */
+    static final String CLIENT_ATTRIBUTE = "citizen.client";
+
+    private static final String RETRY_AFTER_SECONDS = AppConfig.getString("citizen.async.retry-after-seconds", "1");
+
+    private static final Counter READ_LIMITED = Metrics.counter("citizen.limits.rejected", "reason", "read-rate");
+    private static final Counter WRITE_LIMITED = Metrics.counter("citizen.limits.rejected", "reason", "write-rate");
+    private static final Counter EXPENSIVE_SHED = Metrics.counter("citizen.limits.rejected", "reason", "concurrency");
+
+    private final String clientHeader = AppConfig.getString("citizen.limits.client-header", "X-API-Key");
+    private final Set<String> apiKeys = keys(AppConfig.getString("citizen.limits.api-keys", ""));
+    private final double readRate = AppConfig.getInt("citizen.limits.read-rate", 200);
+    private final double readBurst = AppConfig.getInt("citizen.limits.read-burst", 400);
+    private final double writeRate = AppConfig.getInt("citizen.limits.write-rate", 50);
+    private final double writeBurst = AppConfig.getInt("citizen.limits.write-burst", 100);
+    private final long expensiveWaitMs = AppConfig.getLong("citizen.limits.expensive-wait-ms", 50);
+    private final Semaphore expensive;
+    private final Cache<String, Buckets> clients;
+
+    private final class Buckets {
+        final TokenBucket reads;
+        final TokenBucket writes;
+
+        Buckets(long now) {
+            reads = readRate > 0 ? new TokenBucket(readRate, readBurst, now) : null;
+            writes = writeRate > 0 ? new TokenBucket(writeRate, writeBurst, now) : null;
+        }
+    }
+
+    public AdmissionFilter() {
+        int maxExpensive = AppConfig.getInt("citizen.limits.max-expensive",
+                Math.max(2, 2 * Runtime.getRuntime().availableProcessors()));
+        expensive = maxExpensive > 0 ? new Semaphore(maxExpensive) : null;
+        if (expensive != null) {
+            Gauge.builder("citizen.limits.expensive.in.use", expensive, permits -> maxExpensive - permits.availablePermits())
+                    .description("Expensive requests running")
+                    .register(Metrics.REGISTRY);
+        }
+
+        // Idle this long, a bucket has refilled completely
+        double refillSeconds = Math.max(readRate > 0 ? readBurst / readRate : 0, writeRate > 0 ? writeBurst / writeRate : 0);
+        clients = Caffeine.newBuilder()
+                .maximumSize(AppConfig.getInt("citizen.limits.max-clients", 100000))
+                .expireAfterAccess(Duration.ofMillis((long) Math.ceil(refillSeconds * 1000) + 1))
+                .build();
+        Gauge.builder("citizen.limits.clients", clients, Cache::estimatedSize)
+                .description("Clients with a rate limit bucket")
+                .register(Metrics.REGISTRY);
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        String client = clientOf(request);
+        request.setAttribute(CLIENT_ATTRIBUTE, client);
+        boolean write = isWrite(request);
+        if (write ? writeRate > 0 : readRate > 0) {
+            long now = System.nanoTime();
+            Buckets buckets = clients.get(client, key -> new Buckets(now));
+            long waitNanos = (write ? buckets.writes : buckets.reads).tryTake(now);
+            if (waitNanos > 0) {
+                (write ? WRITE_LIMITED : READ_LIMITED).increment();
+                long seconds = Math.max(1, (long) Math.ceil(waitNanos / 1e9));
+                reject(response, 429, String.valueOf(seconds), "Rate limit exceeded, retry in " + seconds + " s");
+                return;
+            }
+        }
+
+        if (expensive == null || !isExpensive(request)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (!acquire()) {
+            EXPENSIVE_SHED.increment();
+            reject(response, 503, RETRY_AFTER_SECONDS, "Server is busy");
+            return;
+        }
+        Release release = new Release();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            // Suspended requests finish later, on a request executor
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(release);
+            } else {
+                release.run();
+            }
+        }
+    }
+
+    /**
+     * Listing, searching, exporting, bulk imports and batch gets. The change stream is
+     * long-lived and capped by citizen.changes.max-subscribers instead.
+     */
+    static boolean isExpensive(HttpServletRequest request) {
+        String path = pathOf(request);
+        switch (request.getMethod()) {
+            case "GET":
+                return path.equals("/citizens") || path.equals("/citizens/export") || path.startsWith("/citizens/search");
+            case "POST":
+                return path.equals("/citizens/bulk") || path.equals("/citizens/batch-get");
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Anything but GET, HEAD and OPTIONS, except batch gets: they are POSTed only to
+     * carry their ids, and read.
+     */
+    static boolean isWrite(HttpServletRequest request) {
+        String method = request.getMethod();
+        if (method.equals("POST")) {
+            return !pathOf(request).equals("/citizens/batch-get");
+        }
+        return !method.equals("GET") && !method.equals("HEAD") && !method.equals("OPTIONS");
+    }
+
+    private static String pathOf(HttpServletRequest request) {
+        String path = request.getPathInfo() == null ? "" : request.getPathInfo();
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    /**
+     * The client that sent a request as this filter knows it, or its address when the
+     * request did not pass the filter
+     */
+    static String client(HttpServletRequest request) {
+        Object client = request.getAttribute(CLIENT_ATTRIBUTE);
+        return client != null ? client.toString() : "addr:" + request.getRemoteAddr();
+    }
+
+    String clientOf(HttpServletRequest request) {
+        String key = request.getHeader(clientHeader);
+        return key != null && apiKeys.contains(key) ? "key:" + key : "addr:" + request.getRemoteAddr();
+    }
+
+    private static Set<String> keys(String list) {
+        Set<String> keys = new HashSet<>();
+        for (String key : list.split(",")) {
+            if (!key.isBlank()) {
+                keys.add(key.trim());
+            }
+        }
+        return Set.copyOf(keys);
+    }
+
+    private boolean acquire() {
+        try {
+            return expensive.tryAcquire(expensiveWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void reject(HttpServletResponse response, int status, String retryAfter, String message)
+            throws IOException {
+        response.setStatus(status);
+        response.setHeader("Retry-After", retryAfter);
+        response.setContentType("text/plain");
+        response.getWriter().write(message);
+    }
+
+    // Gives the permit back once, however the request ends
+    private final class Release implements AsyncListener, Runnable {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        @Override
+        public void run() {
+            if (released.compareAndSet(false, true)) {
+                expensive.release();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            run();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            run();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            run();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
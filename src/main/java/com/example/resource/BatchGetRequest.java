@@ -0,0 +1,14 @@
+package com.example.resource;
+
+import java.util.List;
+
+/**
+ * Body of POST /citizens/batch-get: {"ids": [1, 2, 3]}
+ */
+public class BatchGetRequest {
+
+    private List<Long> ids;
+
+    public List<Long> getIds() { return ids; }
+    public void setIds(List<Long> ids) { this.ids = ids; }
+}
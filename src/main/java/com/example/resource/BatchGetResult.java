@@ -0,0 +1,22 @@
+package com.example.resource;
+
+import com.example.entity.Citizen;
+import java.util.List;
+
+/**
+ * Outcome of a batch lookup: the citizens found, in the order their ids were
+ * requested, and the requested ids no citizen is registered under.
+ */
+public class BatchGetResult {
+
+    private final List<Citizen> citizens;
+    private final List<Long> missing;
+
+    public BatchGetResult(List<Citizen> citizens, List<Long> missing) {
+        this.citizens = citizens;
+        this.missing = missing;
+    }
+
+    public List<Citizen> getCitizens() { return citizens; }
+    public List<Long> getMissing() { return missing; }
+}
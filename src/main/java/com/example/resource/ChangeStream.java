@@ -0,0 +1,116 @@
+package com.example.resource;
+
+import com.example.entity.CitizenChange;
+import com.example.metrics.Metrics;
+import com.example.service.ChangeFeed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the change feed to one Server-Sent Events subscriber.
+ *
+ * Each subscriber has a virtual thread and its own cursor into the feed. Sends block
+ * while the client is slow to read, which only delays this subscriber: it picks up
+ * where it left off, from memory or from the database, instead of buffering events.
+ * A comment line goes out whenever the feed is quiet for heartbeatMs, keeping idle
+ * connections open and noticing clients that went away.
+ */
+final class ChangeStream implements Runnable {
+
+    private static final int BATCH_SIZE = 500;
+    private static final AtomicInteger SUBSCRIBERS = new AtomicInteger();
+    private static final Counter EVENTS_SENT = Metrics.counter("citizen.changes.events.sent");
+
+    static {
+        Gauge.builder("citizen.changes.subscribers", SUBSCRIBERS, AtomicInteger::get).register(Metrics.REGISTRY);
+    }
+
+    private final ChangeFeed feed;
+    private final SseEventSink sink;
+    private final Sse sse;
+    private final long heartbeatMs;
+    private final CitizenChange reset;
+    private long cursor;
+
+    private ChangeStream(ChangeFeed feed, long cursor, CitizenChange reset,
+                         SseEventSink sink, Sse sse, long heartbeatMs) {
+        this.feed = feed;
+        this.cursor = cursor;
+        this.reset = reset;
+        this.sink = sink;
+        this.sse = sse;
+        this.heartbeatMs = heartbeatMs;
+    }
+
+    /**
+     * Start streaming the entries after cursor, first sending reset if it is not null.
+     * Returns false without starting when maxSubscribers are already connected.
+     */
+    static boolean start(ChangeFeed feed, long cursor, CitizenChange reset, SseEventSink sink, Sse sse,
+                         int maxSubscribers, long heartbeatMs) {
+        int current;
+        do {
+            current = SUBSCRIBERS.get();
+            if (current >= maxSubscribers) {
+                return false;
+            }
+        } while (!SUBSCRIBERS.compareAndSet(current, current + 1));
+        Thread.ofVirtual()
+            .name("citizen-changes-" + current)
+            .start(new ChangeStream(feed, cursor, reset, sink, sse, heartbeatMs));
+        return true;
+    }
+
+    @Override
+    public void run() {
+        try (sink) {
+            if (reset != null) {
+                send(event(reset));
+            }
+            while (!sink.isClosed()) {
+                List<CitizenChange> changes;
+                try {
+                    changes = feed.next(cursor, BATCH_SIZE, heartbeatMs);
+                } catch (RejectedExecutionException e) {
+                    // Catching up from a busy database, wait a beat and ask again
+                    Thread.sleep(Math.min(heartbeatMs, 1000));
+                    changes = List.of();
+                }
+                if (changes.isEmpty()) {
+                    send(sse.newEventBuilder().comment("keep-alive").build());
+                    continue;
+                }
+                for (CitizenChange change : changes) {
+                    send(event(change));
+                    cursor = change.getSeq();
+                }
+                EVENTS_SENT.increment(changes.size());
+            }
+        } catch (Exception e) {
+            // The client went away or the server is stopping, either way the stream is over
+        } finally {
+            SUBSCRIBERS.decrementAndGet();
+        }
+    }
+
+    private OutboundSseEvent event(CitizenChange change) {
+        return sse.newEventBuilder()
+                .id(Long.toString(change.getSeq()))
+                .name(change.getType().name().toLowerCase(Locale.ROOT))
+                .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                .data(CitizenChange.class, change)
+                .build();
+    }
+
+    private void send(OutboundSseEvent event) throws Exception {
+        sink.send(event).toCompletableFuture().get();
+    }
+}
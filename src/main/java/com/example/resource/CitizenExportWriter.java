@@ -0,0 +1,56 @@
+package com.example.resource;
+
+import com.example.dao.CitizenDAO;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import jakarta.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Streams the whole registry to the response as NDJSON or as a single JSON array,
+ * one row at a time, so memory use does not depend on the number of citizens.
+ */
+public class CitizenExportWriter implements StreamingOutput {
+
+    static final int FETCH_SIZE = 500;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final CitizenDAO citizenDAO;
+    private final boolean jsonArray;
+
+    public CitizenExportWriter(CitizenDAO citizenDAO, boolean jsonArray) {
+        this.citizenDAO = citizenDAO;
+        this.jsonArray = jsonArray;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        try (SequenceWriter writer = jsonArray
+                ? MAPPER.writer().writeValuesAsArray(output)
+                : MAPPER.writer().withRootValueSeparator("\n").writeValues(output)) {
+            long[] written = {0};
+            citizenDAO.streamAll(FETCH_SIZE, citizen -> {
+                try {
+                    writer.write(citizen);
+                    // Push each batch to the client instead of waiting for the buffer to fill
+                    if (++written[0] % FETCH_SIZE == 0) {
+                        writer.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (!jsonArray && written[0] > 0) {
+                writer.flush();
+                output.write('\n');
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.resource;
+
+import com.example.entity.Citizen;
+import com.example.exception.CitizenValidationException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+/**
+ * Reads citizens one at a time from a request body holding either a JSON array
+ * or newline-delimited JSON objects, without buffering the whole body.
+ *
+ * A record that is valid JSON but cannot be bound to a Citizen is reported as a
+ * CitizenValidationException and skipped; broken JSON ends the stream.
+ */
+public class CitizenImportReader implements Iterator<Citizen>, Closeable {
+
+    private static final ObjectReader READER = new ObjectMapper().readerFor(Citizen.class);
+
+    private final MappingIterator<Citizen> records;
+
+    public CitizenImportReader(InputStream input) throws IOException {
+        this.records = READER.readValues(input);
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            return records.hasNextValue();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Citizen next() {
+        try {
+            return records.nextValue();
+        } catch (JsonMappingException e) {
+            throw new CitizenValidationException("Malformed record: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        records.close();
+    }
+}
@@ -1,12 +1,49 @@
 package com.example.resource;
 
+import com.example.config.AppConfig;
 import com.example.dao.CitizenDAO;
+import com.example.dao.RegistryVersion;
 import com.example.entity.Citizen;
+import com.example.entity.CitizenChange;
+import com.example.exception.CitizenRenameConflictException;
+import com.example.exception.CitizenVersionConflictException;
+import com.example.service.BulkImportResult;
+import com.example.service.ChangeFeed;
+import com.example.service.CitizenService;
+import com.example.service.IdempotencyStore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.CompletionCallback;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.UriBuilder;
+import jakarta.ws.rs.core.UriInfo;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 
 @Path("/citizens")
@@ -14,110 +51,630 @@ import java.util.List;
 @Consumes(MediaType.APPLICATION_JSON)
 public class CitizenResource {
     
-    private CitizenDAO citizenDAO = new CitizenDAO();
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+    public static final String CHANGE_SEQ_HEADER = "X-Change-Seq";
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
     
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int MAX_SEARCH_RESULTS = 100;
+    static final int MAX_BATCH_IDS = AppConfig.getInt("citizen.batch-get.max-ids", 5000);
+    
+    private static final int DEFAULT_CHUNK_SIZE = AppConfig.getInt("citizen.bulk.chunk-size", 1000);
+    private static final int MAX_CHUNK_SIZE = 10000;
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    private static final long READ_TIMEOUT_MS = AppConfig.getLong("citizen.async.read-timeout-ms", 5000);
+    private static final long WRITE_TIMEOUT_MS = AppConfig.getLong("citizen.async.write-timeout-ms", 15000);
+    private static final long BULK_TIMEOUT_MS = AppConfig.getLong("citizen.async.bulk-timeout-ms", 600000);
+    private static final String RETRY_AFTER_SECONDS = AppConfig.getString("citizen.async.retry-after-seconds", "1");
+    // Clients may keep responses but must revalidate them, which is cheap with an ETag
+    private static final CacheControl REVALIDATE = revalidate();
+    
+    private static final int MAX_CHANGE_SUBSCRIBERS = AppConfig.getInt("citizen.changes.max-subscribers", 1000);
+    private static final long CHANGE_HEARTBEAT_MS = AppConfig.getLong("citizen.changes.heartbeat-ms", 15000);
+    
+    private CitizenDAO citizenDAO = CitizenDAO.configured();
+    private CitizenService citizenService = new CitizenService(citizenDAO);
+    
+    @Context
+    private UriInfo uriInfo;
+    
+    /**
+     * List citizens one keyset page at a time. The cursor for the next page
+     * is returned in the X-Next-Cursor header and as a Link rel="next".
+     * Tagged with the registry version, see {@link #readVersioned}.
+     */
     @GET
-    public Response getAllCitizens() {
-        try {
-            List<Citizen> citizens = citizenDAO.findAll();
-            return Response.ok(citizens).build();
-        } catch (Exception e) {
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity("Error retrieving citizens: " + e.getMessage())
+    public void getAllCitizens(@QueryParam("after") Long after,
+                               @QueryParam("limit") Integer limit,
+                               @Context Request request,
+                               @Suspended AsyncResponse asyncResponse) {
+        // UriInfo is bound to the request thread, take what the page links need up front
+        UriBuilder requestUri = uriInfo.getRequestUriBuilder();
+        readVersioned(request, asyncResponse, () -> {
+            try {
+                int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+                if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity("Limit must be between 1 and " + MAX_PAGE_SIZE)
+                            .build();
+                }
+                if (after != null && after < 0) {
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity("After cursor cannot be negative")
+                            .build();
+                }
+            
+                // Fetch one extra row to find out whether another page exists
+                List<Citizen> citizens = citizenDAO.findPage(after, pageSize + 1);
+                Response.ResponseBuilder response;
+                if (citizens.size() > pageSize) {
+                    citizens = citizens.subList(0, pageSize);
+                    Long nextCursor = citizens.get(pageSize - 1).getId();
+                    URI next = requestUri
+                            .replaceQueryParam("after", nextCursor)
+                            .replaceQueryParam("limit", pageSize)
+                            .build();
+                    response = Response.ok(citizens)
+                            .header(NEXT_CURSOR_HEADER, nextCursor)
+                            .link(next, "next");
+                } else {
+                    response = Response.ok(citizens);
+                }
+                return response.build();
+            } catch (RejectedExecutionException e) {
+                return unavailable(e.getMessage());
+            } catch (Exception e) {
+                return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                        .entity("Error retrieving citizens: " + e.getMessage())
+                        .build();
+            }
+        });
+    }
+    
+    /**
+     * Export the whole registry as NDJSON (default) or as one JSON array (?format=json).
+     * Rows are read in pages by id and written out as they come, one page is buffered
+     * per request.
+     * Runs on the container thread rather than a request executor: an export can take
+     * minutes and would otherwise hold one of the few read threads the whole time.
+     * X-Change-Seq is the change log position the export is at least as new as:
+     * follow /changes?since= from there to keep the copy current.
+     */
+    @GET
+    @Path("/export")
+    @Produces({APPLICATION_NDJSON, MediaType.APPLICATION_JSON})
+    public Response exportCitizens(@QueryParam("format") @DefaultValue("ndjson") String format) {
+        boolean jsonArray;
+        if ("ndjson".equalsIgnoreCase(format)) {
+            jsonArray = false;
+        } else if ("json".equalsIgnoreCase(format)) {
+            jsonArray = true;
+        } else {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .type(MediaType.TEXT_PLAIN)
+                    .entity("Format must be ndjson or json")
                     .build();
         }
+        // Read before the export query starts, replaying from here may repeat but never miss a change
+        long changeSeq = citizenDAO.latestChangeSeq();
+        return Response.ok(new CitizenExportWriter(citizenDAO, jsonArray))
+                .type(jsonArray ? MediaType.APPLICATION_JSON : APPLICATION_NDJSON)
+                .header(CHANGE_SEQ_HEADER, changeSeq)
+                .build();
     }
     
+    /**
+     * Registry changes as Server-Sent Events, one per change log entry with its sequence
+     * number as the event id. ?since=N replays every change after N and then follows new
+     * ones; without it only new changes are sent. A reconnecting EventSource resumes from
+     * its Last-Event-ID. A cursor newer than the log, e.g. from before the registry was
+     * reset, gets a reset event first.
+     */
     @GET
-    @Path("/{id}")
-    public Response getCitizenById(@PathParam("id") Long id) {
+    @Path("/changes")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void streamChanges(@QueryParam("since") Long since,
+                              @HeaderParam(HttpHeaders.LAST_EVENT_ID_HEADER) String lastEventId,
+                              @Context SseEventSink sink, @Context Sse sse) {
+        Long from = since;
+        if (from == null && lastEventId != null) {
+            try {
+                from = Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                        .type(MediaType.TEXT_PLAIN)
+                        .entity("Last-Event-ID must be a change sequence number")
+                        .build());
+            }
+        }
+        if (from != null && from < 0) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .type(MediaType.TEXT_PLAIN)
+                    .entity("Since must not be negative")
+                    .build());
+        }
         try {
-            Citizen citizen = citizenDAO.findById(id);
-            if (citizen != null) {
-                return Response.ok(citizen).build();
-            } else {
-                return Response.status(Response.Status.NOT_FOUND)
-                        .entity("Citizen with ID " + id + " not found")
+            ChangeFeed feed = ChangeFeed.shared();
+            long latest = citizenDAO.latestChangeSeq();
+            CitizenChange reset = null;
+            long cursor = from == null ? latest : from;
+            if (from != null && from > latest) {
+                reset = new CitizenChange(latest, CitizenChange.Type.RESET, null, null, null, null,
+                        System.currentTimeMillis());
+                cursor = latest;
+            }
+            if (!ChangeStream.start(feed, cursor, reset, sink, sse, MAX_CHANGE_SUBSCRIBERS, CHANGE_HEARTBEAT_MS)) {
+                throw new WebApplicationException(unavailable("Too many change subscribers"));
+            }
+        } catch (RejectedExecutionException e) {
+            throw new WebApplicationException(unavailable(e.getMessage()));
+        }
+    }
+    
+    @GET
+    @Path("/{id}")
+    public void getCitizenById(@PathParam("id") Long id, @Context Request request,
+                               @Suspended AsyncResponse asyncResponse) {
+        read(asyncResponse, () -> {
+            try {
+                // Usually a second-level cache hit, so a 304 touches neither SQLite nor Jackson
+                Citizen citizen = citizenDAO.findById(id);
+                if (citizen != null) {
+                    EntityTag tag = citizenTag(citizen);
+                    Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+                    if (notModified != null) {
+                        return notModified.cacheControl(REVALIDATE).build();
+                    }
+                    return Response.ok(citizen).tag(tag).cacheControl(REVALIDATE).build();
+                } else {
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity("Citizen with ID " + id + " not found")
+                            .build();
+                }
+            } catch (RejectedExecutionException e) {
+                return unavailable(e.getMessage());
+            } catch (Exception e) {
+                return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                        .entity("Error retrieving citizen: " + e.getMessage())
                         .build();
             }
-        } catch (Exception e) {
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity("Error retrieving citizen: " + e.getMessage())
-                    .build();
+        });
+    }
+    
+    /**
+     * Look up many citizens in one call, e.g. {"ids": [3, 1, 7]}. Found citizens are
+     * returned in request order, unknown ids are listed under "missing".
+     */
+    @POST
+    @Path("/batch-get")
+    public void batchGet(BatchGetRequest batch, @Suspended AsyncResponse asyncResponse) {
+        List<Long> ids = batch == null ? null : batch.getIds();
+        if (ids == null || ids.isEmpty()) {
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("At least one id is required")
+                    .build());
+            return;
+        }
+        if (ids.size() > MAX_BATCH_IDS) {
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("At most " + MAX_BATCH_IDS + " ids can be requested at once")
+                    .build());
+            return;
         }
+        if (ids.contains(null)) {
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Ids cannot be null")
+                    .build());
+            return;
+        }
+        read(asyncResponse, () -> {
+            try {
+                List<Citizen> citizens = citizenDAO.findByIds(ids);
+                Set<Long> found = new HashSet<>();
+                for (Citizen citizen : citizens) {
+                    found.add(citizen.getId());
+                }
+                Set<Long> missing = new LinkedHashSet<>();
+                for (Long id : ids) {
+                    if (!found.contains(id)) {
+                        missing.add(id);
+                    }
+                }
+                return Response.ok(new BatchGetResult(citizens, new ArrayList<>(missing))).build();
+            } catch (RejectedExecutionException e) {
+                return unavailable(e.getMessage());
+            } catch (Exception e) {
+                return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                        .entity("Error retrieving citizens: " + e.getMessage())
+                        .build();
+            }
+        });
     }
     
     @GET
     @Path("/search")
-    public Response searchByName(@QueryParam("name") String name) {
-        try {
-            if (name == null || name.trim().isEmpty()) {
-                return Response.status(Response.Status.BAD_REQUEST)
-                        .entity("Name parameter is required")
+    public void searchByName(@QueryParam("name") String name, @Context Request request,
+                             @Suspended AsyncResponse asyncResponse) {
+        readVersioned(request, asyncResponse, () -> {
+            try {
+                if (name == null || name.trim().isEmpty()) {
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity("Name parameter is required")
+                            .build();
+                }
+                List<Citizen> citizens = citizenDAO.findByName(name);
+                return Response.ok(citizens).build();
+            } catch (RejectedExecutionException e) {
+                return unavailable(e.getMessage());
+            } catch (Exception e) {
+                return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                        .entity("Error searching citizens: " + e.getMessage())
                         .build();
             }
-            List<Citizen> citizens = citizenDAO.findByName(name);
-            return Response.ok(citizens).build();
-        } catch (Exception e) {
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity("Error searching citizens: " + e.getMessage())
-                    .build();
-        }
+        });
     }
     
+    /**
+     * Ranked substring search across name and surname, e.g. ?q=smi&limit=20. Every
+     * term must appear in the name or surname, terms under three characters too.
+     */
+    @GET
+    @Path("/search/text")
+    public void searchText(@QueryParam("q") String text,
+                           @QueryParam("limit") @DefaultValue("20") int limit,
+                           @Context Request request,
+                           @Suspended AsyncResponse asyncResponse) {
+        readVersioned(request, asyncResponse, () -> {
+            try {
+                if (text == null || text.trim().isEmpty()) {
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity("Query parameter q is required")
+                            .build();
+                }
+                if (limit < 1 || limit > MAX_SEARCH_RESULTS) {
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity("Limit must be between 1 and " + MAX_SEARCH_RESULTS)
+                            .build();
+                }
+                List<Citizen> citizens = citizenDAO.search(text, limit);
+                return Response.ok(citizens).build();
+            } catch (RejectedExecutionException e) {
+                return unavailable(e.getMessage());
+            } catch (Exception e) {
+                return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                        .entity("Error searching citizens: " + e.getMessage())
+                        .build();
+            }
+        });
+    }
+
+    /**
+     * Names as heard or misspelled, closest first, e.g. ?q=jon smyth&limit=20
+     */
+    @GET
+    @Path("/search/fuzzy")
+    public void searchFuzzy(@QueryParam("q") String text,
+                            @QueryParam("limit") @DefaultValue("20") int limit,
+                            @Context Request request,
+                            @Suspended AsyncResponse asyncResponse) {
+        readVersioned(request, asyncResponse, () -> {
+            try {
+                if (text == null || text.trim().isEmpty()) {
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity("Query parameter q is required")
+                            .build();
+                }
+                if (limit < 1 || limit > MAX_SEARCH_RESULTS) {
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity("Limit must be between 1 and " + MAX_SEARCH_RESULTS)
+                            .build();
+                }
+                List<Citizen> citizens = citizenDAO.fuzzySearch(text, limit);
+                return Response.ok(citizens).build();
+            } catch (RejectedExecutionException e) {
+                return unavailable(e.getMessage());
+            } catch (Exception e) {
+                return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                        .entity("Error searching citizens: " + e.getMessage())
+                        .build();
+            }
+        });
+    }
+
+    /**
+     * Create a citizen. With an Idempotency-Key header a retry gets the response of the
+     * first successful request with that key again instead of running twice, marked with
+     * Idempotent-Replayed; a retry arriving while the first is still running waits for it.
+     * Reusing a key for a different citizen is answered with 422. Keys are per client,
+     * as AdmissionFilter tells clients apart.
+     */
     @POST
-    public Response createCitizen(@Valid Citizen citizen) {
+    public void createCitizen(@Valid Citizen citizen,
+                              @HeaderParam(IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+                              @Context HttpServletRequest servletRequest,
+                              @Suspended AsyncResponse asyncResponse) {
+        if (citizen == null) {
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Citizen is required")
+                    .build());
+            return;
+        }
+        if (idempotencyKey == null) {
+            write(asyncResponse, WRITE_TIMEOUT_MS, () -> create(citizen));
+            return;
+        }
+        if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Idempotency-Key must be 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters")
+                    .build());
+            return;
+        }
+        IdempotencyStore store = IdempotencyStore.shared();
+        IdempotencyStore.Claim claim = store.claim(AdmissionFilter.client(servletRequest), idempotencyKey,
+                citizen.getName() + "\n" + citizen.getSurname());
+        if (claim.isMismatch()) {
+            asyncResponse.resume(Response.status(422)
+                    .entity("Idempotency-Key was already used for a different citizen")
+                    .build());
+            return;
+        }
+        if (!claim.isOwner()) {
+            replay(claim.response(), asyncResponse);
+            return;
+        }
+        // A request ending without running, on a full executor or a timeout, frees the key
+        asyncResponse.register((CompletionCallback) failure -> store.release(claim, null));
+        write(asyncResponse, WRITE_TIMEOUT_MS, () -> {
+            Response response = create(citizen);
+            IdempotencyStore.StoredResponse stored = stored(response);
+            if (response.getStatus() == Response.Status.CREATED.getStatusCode()) {
+                store.complete(claim, stored);
+            } else {
+                store.release(claim, stored);
+            }
+            return response;
+        });
+    }
+
+    private Response create(Citizen citizen) {
         try {
             // Ensure ID is null for new citizens
             citizen.setId(null);
             Citizen savedCitizen = citizenDAO.save(citizen);
             return Response.status(Response.Status.CREATED)
                     .entity(savedCitizen)
+                    .tag(citizenTag(savedCitizen))
                     .build();
+        } catch (RejectedExecutionException e) {
+            return unavailable(e.getMessage());
         } catch (Exception e) {
             return Response.status(Response.Status.BAD_REQUEST)
                     .entity("Error creating citizen: " + e.getMessage())
                     .build();
         }
     }
+
+    /**
+     * Answer with the response of the request that has the key, once it is there. No
+     * executor is involved: a replay is a lookup.
+     */
+    private static void replay(CompletableFuture<IdempotencyStore.StoredResponse> response, AsyncResponse asyncResponse) {
+        if (!response.isDone()) {
+            asyncResponse.setTimeoutHandler(timedOut -> timedOut.resume(unavailable("Request timed out")));
+            asyncResponse.setTimeout(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        response.thenAccept(stored -> asyncResponse.resume(stored == null
+                ? unavailable("The request with the same Idempotency-Key did not finish, retry")
+                : Response.status(stored.status)
+                        .type(stored.contentType)
+                        .header(HttpHeaders.ETAG, stored.etag)
+                        .header(IDEMPOTENT_REPLAYED_HEADER, "true")
+                        .entity(stored.body)
+                        .build()));
+    }
+
+    private static IdempotencyStore.StoredResponse stored(Response response) {
+        Object entity = response.getEntity();
+        String body;
+        try {
+            body = entity == null || entity instanceof String ? (String) entity : MAPPER.writeValueAsString(entity);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot keep the response for replay", e);
+        }
+        MediaType type = response.getMediaType() != null ? response.getMediaType()
+                : entity instanceof String ? MediaType.TEXT_PLAIN_TYPE : MediaType.APPLICATION_JSON_TYPE;
+        return new IdempotencyStore.StoredResponse(response.getStatus(), type.toString(),
+                response.getHeaderString(HttpHeaders.ETAG), body);
+    }
     
+    /**
+     * Import many citizens from a JSON array or NDJSON body. Records are validated
+     * one by one and stored in chunks; the response lists the rejected records.
+     */
+    @POST
+    @Path("/bulk")
+    @Consumes({MediaType.APPLICATION_JSON, APPLICATION_NDJSON})
+    public void importCitizens(InputStream body, @QueryParam("chunkSize") Integer chunkSize,
+                               @Suspended AsyncResponse asyncResponse) {
+        int size = chunkSize == null ? DEFAULT_CHUNK_SIZE : chunkSize;
+        if (size < 1 || size > MAX_CHUNK_SIZE) {
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Chunk size must be between 1 and " + MAX_CHUNK_SIZE)
+                    .build());
+            return;
+        }
+        write(asyncResponse, BULK_TIMEOUT_MS, () -> {
+            try (CitizenImportReader reader = new CitizenImportReader(body)) {
+                BulkImportResult result = citizenService.importCitizens(reader, size);
+                return Response.ok(result).build();
+            } catch (RejectedExecutionException e) {
+                return unavailable(e.getMessage());
+            } catch (Exception e) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Error importing citizens: " + e.getMessage())
+                        .build();
+            }
+        });
+    }
+    
+    /**
+     * Replace a citizen. With If-Match the update only goes through if the citizen is
+     * still at that ETag (412 otherwise); without it, a concurrent update between
+     * reading and writing is reported as 409, as is a rename the sharded backend
+     * cannot store under the same id.
+     */
     @PUT
     @Path("/{id}")
-    public Response updateCitizen(@PathParam("id") Long id, @Valid Citizen citizen) {
-        try {
-            Citizen existingCitizen = citizenDAO.findById(id);
-            if (existingCitizen == null) {
-                return Response.status(Response.Status.NOT_FOUND)
-                        .entity("Citizen with ID " + id + " not found")
+    public void updateCitizen(@PathParam("id") Long id, @Valid Citizen citizen,
+                              @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
+                              @Context Request request,
+                              @Suspended AsyncResponse asyncResponse) {
+        write(asyncResponse, WRITE_TIMEOUT_MS, () -> {
+            try {
+                Citizen existingCitizen = citizenDAO.findById(id);
+                if (existingCitizen == null) {
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity("Citizen with ID " + id + " not found")
+                            .build();
+                }
+                Response.ResponseBuilder preconditionFailed = request.evaluatePreconditions(citizenTag(existingCitizen));
+                if (preconditionFailed != null) {
+                    return preconditionFailed.build();
+                }
+                
+                citizen.setId(id);
+                citizen.setVersion(existingCitizen.getVersion());
+                Citizen updatedCitizen = citizenDAO.save(citizen);
+                return Response.ok(updatedCitizen).tag(citizenTag(updatedCitizen)).build();
+            } catch (CitizenVersionConflictException e) {
+                return Response.status(ifMatch != null ? Response.Status.PRECONDITION_FAILED : Response.Status.CONFLICT)
+                        .entity(e.getMessage())
+                        .build();
+            } catch (CitizenRenameConflictException e) {
+                return Response.status(Response.Status.CONFLICT)
+                        .entity(e.getMessage())
+                        .build();
+            } catch (RejectedExecutionException e) {
+                return unavailable(e.getMessage());
+            } catch (Exception e) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Error updating citizen: " + e.getMessage())
                         .build();
             }
-            
-            citizen.setId(id);
-            Citizen updatedCitizen = citizenDAO.save(citizen);
-            return Response.ok(updatedCitizen).build();
-        } catch (Exception e) {
-            return Response.status(Response.Status.BAD_REQUEST)
-                    .entity("Error updating citizen: " + e.getMessage())
-                    .build();
-        }
+        });
     }
     
     @DELETE
     @Path("/{id}")
-    public Response deleteCitizen(@PathParam("id") Long id) {
-        try {
-            boolean deleted = citizenDAO.delete(id);
-            if (deleted) {
-                return Response.status(Response.Status.NO_CONTENT).build();
-            } else {
-                return Response.status(Response.Status.NOT_FOUND)
-                        .entity("Citizen with ID " + id + " not found")
+    public void deleteCitizen(@PathParam("id") Long id, @Suspended AsyncResponse asyncResponse) {
+        write(asyncResponse, WRITE_TIMEOUT_MS, () -> {
+            try {
+                boolean deleted = citizenDAO.delete(id);
+                if (deleted) {
+                    return Response.status(Response.Status.NO_CONTENT).build();
+                } else {
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity("Citizen with ID " + id + " not found")
+                            .build();
+                }
+            } catch (RejectedExecutionException e) {
+                return unavailable(e.getMessage());
+            } catch (Exception e) {
+                return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                        .entity("Error deleting citizen: " + e.getMessage())
                         .build();
             }
-        } catch (Exception e) {
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity("Error deleting citizen: " + e.getMessage())
+        });
+    }
+    
+    /**
+     * Read for responses built from many citizens. They are tagged with the registry
+     * version: a matching If-None-Match is answered 304 right here, without a query,
+     * serialization or a trip through the executor. There is no Last-Modified, whole
+     * seconds are too coarse to tell apart a change made in the same second.
+     */
+    private static void readVersioned(Request request, AsyncResponse asyncResponse, Supplier<Response> work) {
+        // Version first: a change committed while the query runs must give the next poll a new tag
+        EntityTag tag = new EntityTag(RegistryVersion.BOOT_ID + "-" + RegistryVersion.current());
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            asyncResponse.resume(notModified.cacheControl(REVALIDATE).build());
+            return;
+        }
+        read(asyncResponse, () -> {
+            Response response = work.get();
+            if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                return response;
+            }
+            return Response.fromResponse(response)
+                    .tag(tag)
+                    .cacheControl(REVALIDATE)
                     .build();
+        });
+    }
+    
+    /**
+     * Citizens and their versions are stored, so their tags stay valid across restarts
+     */
+    private static EntityTag citizenTag(Citizen citizen) {
+        return new EntityTag(citizen.getId() + "-" + citizen.getVersion());
+    }
+    
+    private static CacheControl revalidate() {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoCache(true);
+        // Only no-cache, JAX-RS would add no-transform by default
+        cacheControl.setNoTransform(false);
+        return cacheControl;
+    }
+    
+    private static void read(AsyncResponse asyncResponse, Supplier<Response> work) {
+        submit(RequestExecutors.READS, READ_TIMEOUT_MS, asyncResponse, work);
+    }
+    
+    private static void write(AsyncResponse asyncResponse, long timeoutMs, Supplier<Response> work) {
+        submit(RequestExecutors.WRITES, timeoutMs, asyncResponse, work);
+    }
+    
+    /**
+     * Run the work on a bounded executor and resume the suspended request with its response.
+     * A full executor or an expired timeout answers 503 with Retry-After; work that has
+     * not started by the timeout is cancelled, work already running is left to finish.
+     */
+    private static void submit(ExecutorService executor, long timeoutMs,
+                               AsyncResponse asyncResponse, Supplier<Response> work) {
+        AtomicReference<Future<?>> task = new AtomicReference<>();
+        asyncResponse.setTimeoutHandler(response -> {
+            Future<?> pending = task.get();
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            response.resume(unavailable("Request timed out"));
+        });
+        asyncResponse.setTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+        try {
+            task.set(executor.submit(() -> {
+                try {
+                    asyncResponse.resume(work.get());
+                } catch (RuntimeException e) {
+                    asyncResponse.resume(e);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            asyncResponse.resume(unavailable("Server is busy"));
         }
     }
+    
+    private static Response unavailable(String message) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .type(MediaType.TEXT_PLAIN)
+                .entity(message)
+                .build();
+    }
 }
\ No newline at end of file
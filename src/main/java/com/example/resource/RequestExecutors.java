@@ -0,0 +1,70 @@
+package com.example.resource;
+
+import com.example.config.AppConfig;
+import com.example.metrics.Metrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors that run the database work of suspended requests.
+ *
+ * Reads and writes get separate pools, so a burst of slow writes queues behind
+ * the single SQLite writer without taking threads from reads. Both have a fixed
+ * number of threads and a bounded queue; when the queue is full, submit throws
+ * RejectedExecutionException and the request is answered with 503.
+ *
+ * With citizen.server.virtual-threads=true every task gets its own virtual thread
+ * instead, so in-flight requests are not capped by a pool or a queue; the DAO's
+ * ConcurrencyLimiters, one for reads and one for writes, bound how many of them
+ * reach the database at once.
+ */
+public final class RequestExecutors {
+
+    private static final boolean VIRTUAL = AppConfig.getBoolean("citizen.server.virtual-threads", false);
+
+    static final ExecutorService READS = VIRTUAL ? createVirtual("citizen-read") : create("citizen-read",
+            AppConfig.getInt("citizen.async.read-threads", Math.max(4, 2 * Runtime.getRuntime().availableProcessors())),
+            AppConfig.getInt("citizen.async.read-queue-capacity", 1000));
+    static final ExecutorService WRITES = VIRTUAL ? createVirtual("citizen-write") : create("citizen-write",
+            AppConfig.getInt("citizen.async.write-threads", 8),
+            AppConfig.getInt("citizen.async.write-queue-capacity", 1000));
+
+    private RequestExecutors() {}
+
+    private static ExecutorService create(String name, int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = task -> {
+            Thread thread = new Thread(task, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), factory, new ThreadPoolExecutor.AbortPolicy());
+        return ExecutorServiceMetrics.monitor(Metrics.REGISTRY, executor, name);
+    }
+
+    private static ExecutorService createVirtual(String name) {
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        return ExecutorServiceMetrics.monitor(Metrics.REGISTRY, executor, name);
+    }
+
+    /**
+     * Stop taking requests and wait briefly for running ones to finish
+     */
+    public static void shutdown() {
+        READS.shutdown();
+        WRITES.shutdown();
+        try {
+            READS.awaitTermination(5, TimeUnit.SECONDS);
+            WRITES.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
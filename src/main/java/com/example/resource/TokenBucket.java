@@ -0,0 +1,35 @@
+package com.example.resource;
+
+/**
+ * Allows requests at a steady rate with bursts up to its capacity. Starts full;
+ * each request takes one token and tokens come back at the rate per second.
+ */
+final class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(double ratePerSecond, double capacity, long nowNanos) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerNano = ratePerSecond / 1e9;
+        this.tokens = this.capacity;
+        this.refilledAt = nowNanos;
+    }
+
+    /**
+     * Take a token: 0 if one was there, otherwise the nanoseconds until one will be
+     */
+    synchronized long tryTake(long nowNanos) {
+        if (nowNanos > refilledAt) {
+            tokens = Math.min(capacity, tokens + (nowNanos - refilledAt) * tokensPerNano);
+            refilledAt = nowNanos;
+        }
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: how many records were read and stored, and why the
+ * others were rejected. Only the first MAX_ERRORS failures are listed.
+ */
+public class BulkImportResult {
+
+    static final int MAX_ERRORS = 1000;
+
+    private long received;
+    private long imported;
+    private long failed;
+    private boolean aborted;
+    private boolean errorsTruncated;
+    private final List<RecordError> errors = new ArrayList<>();
+
+    void recordReceived() {
+        received++;
+    }
+
+    void recordImported(int count) {
+        imported += count;
+    }
+
+    void recordFailure(long index, String message) {
+        failed++;
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(new RecordError(index, message));
+        } else {
+            errorsTruncated = true;
+        }
+    }
+
+    void recordAborted(long index, String message) {
+        aborted = true;
+        recordFailure(index, message);
+    }
+
+    // Getters
+    public long getReceived() { return received; }
+    public long getImported() { return imported; }
+    public long getFailed() { return failed; }
+    public boolean isAborted() { return aborted; }
+    public boolean isErrorsTruncated() { return errorsTruncated; }
+    public List<RecordError> getErrors() { return errors; }
+
+    /**
+     * A rejected record, identified by its zero-based position in the input
+     */
+    public static class RecordError {
+        private final long index;
+        private final String message;
+
+        public RecordError(long index, String message) {
+            this.index = index;
+            this.message = message;
+        }
+
+        public long getIndex() { return index; }
+        public String getMessage() { return message; }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.service;
+
+import com.example.config.AppConfig;
+import com.example.dao.CitizenDAO;
+import com.example.dao.RegistryVersion;
+import com.example.entity.CitizenChange;
+import com.example.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tails the change log and keeps its most recent entries in memory for followers.
+ *
+ * One thread reads new entries as soon as a write commits, or every pollIntervalMs,
+ * into a ring of the last capacity entries. Followers ask for the entries after the
+ * last one they have seen: entries still in the ring are served from memory, a
+ * follower that has fallen further behind reads them from the database. Each follower
+ * moves at its own pace, so a slow one never holds up the tailer or the others.
+ */
+public class ChangeFeed {
+
+    private static final int TAIL_BATCH_SIZE = 1000;
+    private static final Counter TAIL_ERRORS = Metrics.counter("citizen.changes.tail.errors");
+
+    private static ChangeFeed shared;
+
+    private final CitizenDAO citizenDAO;
+    private final CitizenChange[] ring;
+    private final long pollIntervalMs;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition advanced = lock.newCondition();
+    private final Thread tailer;
+    private int start;
+    private int size;
+    // The ring holds every entry after this one
+    private long evictedUpTo;
+    private volatile long latest;
+    private volatile boolean running = true;
+
+    public ChangeFeed(CitizenDAO citizenDAO, int capacity, long pollIntervalMs) {
+        this.citizenDAO = citizenDAO;
+        this.ring = new CitizenChange[capacity];
+        this.pollIntervalMs = pollIntervalMs;
+        this.latest = citizenDAO.latestChangeSeq();
+        this.evictedUpTo = latest;
+        this.tailer = new Thread(this::tail, "citizen-change-feed");
+        this.tailer.setDaemon(true);
+        this.tailer.start();
+        Gauge.builder("citizen.changes.latest.seq", this, ChangeFeed::latestSeq).register(Metrics.REGISTRY);
+    }
+
+    /**
+     * The feed shared by all subscribers, started on first use
+     */
+    public static synchronized ChangeFeed shared() {
+        if (shared == null) {
+            shared = new ChangeFeed(CitizenDAO.configured(),
+                AppConfig.getInt("citizen.changes.buffer-size", 10000),
+                AppConfig.getLong("citizen.changes.poll-interval-ms", 1000));
+        }
+        return shared;
+    }
+
+    public static synchronized void shutdownShared() {
+        if (shared != null) {
+            shared.shutdown();
+            shared = null;
+        }
+    }
+
+    /**
+     * Sequence number of the newest entry the feed has read
+     */
+    public long latestSeq() {
+        return latest;
+    }
+
+    /**
+     * Up to max entries after afterSeq, oldest first. Waits up to timeoutMs for one
+     * to arrive and returns an empty list if none does.
+     */
+    public List<CitizenChange> next(long afterSeq, int max, long timeoutMs) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (latest <= afterSeq) {
+                if (remaining <= 0 || !running) {
+                    return new ArrayList<>();
+                }
+                remaining = advanced.awaitNanos(remaining);
+            }
+            if (afterSeq >= evictedUpTo) {
+                return copyAfter(afterSeq, max);
+            }
+        } finally {
+            lock.unlock();
+        }
+        // Behind the ring, catch up from the log itself
+        return citizenDAO.findChangesAfter(afterSeq, max);
+    }
+
+    /**
+     * Stop the tailer and release waiting followers
+     */
+    public void shutdown() {
+        running = false;
+        tailer.interrupt();
+        try {
+            tailer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            advanced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void tail() {
+        while (running) {
+            try {
+                // Read before the query, so a commit during the query is not waited out
+                long version = RegistryVersion.current();
+                List<CitizenChange> changes = citizenDAO.findChangesAfter(latest, TAIL_BATCH_SIZE);
+                if (!changes.isEmpty()) {
+                    append(changes);
+                    if (changes.size() == TAIL_BATCH_SIZE) {
+                        continue;
+                    }
+                }
+                RegistryVersion.awaitChange(version, pollIntervalMs);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // Busy or failing database, try again on the next poll
+                TAIL_ERRORS.increment();
+                try {
+                    Thread.sleep(pollIntervalMs);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void append(List<CitizenChange> changes) {
+        lock.lock();
+        try {
+            for (CitizenChange change : changes) {
+                if (size == ring.length) {
+                    evictedUpTo = ring[start].getSeq();
+                    start = (start + 1) % ring.length;
+                    size--;
+                }
+                ring[(start + size) % ring.length] = change;
+                size++;
+            }
+            latest = changes.get(changes.size() - 1).getSeq();
+            advanced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<CitizenChange> copyAfter(long afterSeq, int max) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (at(mid).getSeq() <= afterSeq) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int count = Math.min(max, size - low);
+        List<CitizenChange> changes = new ArrayList<>(count);
+        for (int i = low; i < low + count; i++) {
+            changes.add(at(i));
+        }
+        return changes;
+    }
+
+    private CitizenChange at(int index) {
+        return ring[(start + index) % ring.length];
+    }
+}
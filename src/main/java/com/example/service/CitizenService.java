@@ -4,15 +4,18 @@ import com.example.dao.CitizenDAO;
 import com.example.entity.Citizen;
 import com.example.exception.CitizenNotFoundException;
 import com.example.exception.CitizenValidationException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 public class CitizenService {
     
     private final CitizenDAO citizenDAO;
     
     public CitizenService() {
-        this.citizenDAO = new CitizenDAO();
+        this.citizenDAO = CitizenDAO.configured();
     }
     
     public CitizenService(CitizenDAO citizenDAO) {
@@ -23,7 +26,7 @@ public class CitizenService {
      * Register a new citizen
      */
     public Citizen registerCitizen(Citizen citizen) {
-        validateCitizen(citizen);
+        CitizenValidator.validate(citizen);
         
         // Business rule: Check for duplicate names (optional)
         if (isDuplicateName(citizen.getName(), citizen.getSurname())) {
@@ -37,6 +40,68 @@ public class CitizenService {
         return citizenDAO.save(citizen);
     }
     
+    /**
+     * Import a stream of new citizens. Every record is validated like registerCitizen,
+     * valid ones are stored in chunks with one transaction per chunk. A rejected record
+     * is reported by its index and does not abort the rest of the load.
+     */
+    public BulkImportResult importCitizens(Iterator<Citizen> citizens, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new CitizenValidationException("Chunk size must be at least 1");
+        }
+        
+        BulkImportResult result = new BulkImportResult();
+        List<Citizen> chunk = new ArrayList<>(chunkSize);
+        List<Long> chunkIndexes = new ArrayList<>(chunkSize);
+        Set<String> chunkNames = new HashSet<>();
+        long index = 0;
+        
+        while (true) {
+            Citizen citizen;
+            try {
+                if (!citizens.hasNext()) {
+                    break;
+                }
+                citizen = citizens.next();
+            } catch (CitizenValidationException e) {
+                // A malformed record, the reader has already skipped past it
+                result.recordReceived();
+                result.recordFailure(index++, e.getMessage());
+                continue;
+            } catch (RuntimeException e) {
+                result.recordAborted(index, "Input could not be read: " + e.getMessage());
+                break;
+            }
+            
+            result.recordReceived();
+            try {
+                CitizenValidator.validate(citizen);
+                // Duplicates within the chunk are not in the database yet
+                if (!chunkNames.add(fullNameKey(citizen))
+                        || isDuplicateName(citizen.getName(), citizen.getSurname())) {
+                    throw new CitizenValidationException(
+                        "A citizen with the same name and surname already exists");
+                }
+                citizen.setId(null);
+                chunk.add(citizen);
+                chunkIndexes.add(index);
+            } catch (CitizenValidationException e) {
+                result.recordFailure(index, e.getMessage());
+            }
+            index++;
+            
+            if (chunk.size() == chunkSize) {
+                storeChunk(chunk, chunkIndexes, result);
+                chunk.clear();
+                chunkIndexes.clear();
+                chunkNames.clear();
+            }
+        }
+        
+        storeChunk(chunk, chunkIndexes, result);
+        return result;
+    }
+    
     /**
      * Update existing citizen information
      */
@@ -46,7 +111,7 @@ public class CitizenService {
         }
         
         Citizen existingCitizen = getCitizenById(id);
-        validateCitizen(citizen);
+        CitizenValidator.validate(citizen);
         
         // Business rule: Check for duplicate names excluding current citizen
         if (isDuplicateNameExcluding(citizen.getName(), citizen.getSurname(), id)) {
@@ -93,16 +158,14 @@ public class CitizenService {
     }
     
     /**
-     * Get citizens by surname
+     * Get citizens whose surname starts with the given text (case-insensitive)
      */
     public List<Citizen> getCitizensBySurname(String surname) {
         if (surname == null || surname.trim().isEmpty()) {
             throw new CitizenValidationException("Surname cannot be empty");
         }
         
-        return citizenDAO.findAll().stream()
-                .filter(c -> c.getSurname().toLowerCase().contains(surname.toLowerCase().trim()))
-                .collect(Collectors.toList());
+        return citizenDAO.findBySurnamePrefix(surname.trim());
     }
     
     /**
@@ -114,10 +177,7 @@ public class CitizenService {
             throw new CitizenValidationException("Both name and surname are required");
         }
         
-        return citizenDAO.findAll().stream()
-                .filter(c -> c.getName().equalsIgnoreCase(name.trim()) && 
-                           c.getSurname().equalsIgnoreCase(surname.trim()))
-                .collect(Collectors.toList());
+        return citizenDAO.findByFullName(name.trim(), surname.trim());
     }
     
     /**
@@ -138,97 +198,52 @@ public class CitizenService {
      * Get total count of registered citizens
      */
     public long getTotalCitizensCount() {
-        return citizenDAO.findAll().size();
+        return citizenDAO.count();
     }
     
     /**
      * Check if registry is empty
      */
     public boolean isRegistryEmpty() {
-        return citizenDAO.findAll().isEmpty();
+        return !citizenDAO.existsAny();
     }
     
     // Private helper methods
     
-    private void validateCitizen(Citizen citizen) {
-        if (citizen == null) {
-            throw new CitizenValidationException("Citizen data cannot be null");
-        }
-        
-        if (citizen.getName() == null || citizen.getName().trim().isEmpty()) {
-            throw new CitizenValidationException("Citizen name is required");
-        }
-        
-        if (citizen.getSurname() == null || citizen.getSurname().trim().isEmpty()) {
-            throw new CitizenValidationException("Citizen surname is required");
-        }
-        
-        // Business rules validation
-        if (citizen.getName().trim().length() < 2) {
-            throw new CitizenValidationException("Name must be at least 2 characters long");
-        }
-        
-        if (citizen.getSurname().trim().length() < 2) {
-            throw new CitizenValidationException("Surname must be at least 2 characters long");
-        }
-        
-        if (citizen.getName().trim().length() > 50) {
-            throw new CitizenValidationException("Name cannot exceed 50 characters");
-        }
-        
-        if (citizen.getSurname().trim().length() > 50) {
-            throw new CitizenValidationException("Surname cannot exceed 50 characters");
-        }
-        
-        // Check for invalid characters (only letters, spaces, hyphens, apostrophes)
-        if (!isValidName(citizen.getName().trim())) {
-            throw new CitizenValidationException("Name contains invalid characters");
-        }
-        
-        if (!isValidName(citizen.getSurname().trim())) {
-            throw new CitizenValidationException("Surname contains invalid characters");
+    private void storeChunk(List<Citizen> chunk, List<Long> indexes, BulkImportResult result) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            citizenDAO.saveAll(chunk);
+            result.recordImported(chunk.size());
+        } catch (RuntimeException e) {
+            // Retry one record per transaction so only the offending records are rejected
+            for (int i = 0; i < chunk.size(); i++) {
+                Citizen citizen = chunk.get(i);
+                citizen.setId(null);
+                try {
+                    citizenDAO.save(citizen);
+                    result.recordImported(1);
+                } catch (RuntimeException ex) {
+                    result.recordFailure(indexes.get(i), ex.getMessage());
+                }
+            }
         }
-        
-        // Trim and normalize the names
-        citizen.setName(normalizeName(citizen.getName()));
-        citizen.setSurname(normalizeName(citizen.getSurname()));
     }
     
-    private boolean isValidName(String name) {
-        // Allow letters, spaces, hyphens, and apostrophes
-        return name.matches("^[a-zA-ZÀ-ÿ\\s'-]+$");
+    private String fullNameKey(Citizen citizen) {
+        return Citizen.normalizeKey(citizen.getName()) + '\u0000' + Citizen.normalizeKey(citizen.getSurname());
     }
     
-    private String normalizeName(String name) {
-        // Trim, convert to proper case (first letter uppercase, rest lowercase)
-        if (name == null || name.trim().isEmpty()) {
-            return name;
-        }
-        
-        String trimmed = name.trim();
-        String[] words = trimmed.split("\\s+");
-        StringBuilder normalized = new StringBuilder();
-        
-        for (int i = 0; i < words.length; i++) {
-            if (i > 0) {
-                normalized.append(" ");
-            }
-            String word = words[i];
-            if (!word.isEmpty()) {
-                normalized.append(Character.toUpperCase(word.charAt(0)))
-                          .append(word.substring(1).toLowerCase());
-            }
-        }
-        
-        return normalized.toString();
-    }
+    // Fast-path checks for a friendly error. The unique full-name index is what
+    // guarantees uniqueness when concurrent writers race past these checks.
     
     private boolean isDuplicateName(String name, String surname) {
-        return !getCitizensByFullName(name, surname).isEmpty();
+        return citizenDAO.existsByFullName(name, surname, null);
     }
     
     private boolean isDuplicateNameExcluding(String name, String surname, Long excludeId) {
-        List<Citizen> duplicates = getCitizensByFullName(name, surname);
-        return duplicates.stream().anyMatch(c -> !c.getId().equals(excludeId));
+        return citizenDAO.existsByFullName(name, surname, excludeId);
     }
 }
\ No newline at end of file
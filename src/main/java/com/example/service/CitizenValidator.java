@@ -0,0 +1,198 @@
+package com.example.service;
+
+import com.example.entity.Citizen;
+import com.example.exception.CitizenValidationException;
+import java.util.Locale;
+
+/**
+ * Validates a citizen's name and surname and brings them into proper case:
+ * trimmed, single spaces between words, each word capitalized.
+ *
+ * Both fields are checked and normalized in one pass over their characters, without
+ * trimmed copies or regular expressions. A name that is already normalized is kept
+ * as is, so the common case allocates nothing.
+ */
+public final class CitizenValidator {
+
+    static final int MIN_LENGTH = 2;
+    static final int MAX_LENGTH = 50;
+
+    private CitizenValidator() {}
+
+    /**
+     * Check the citizen and normalize its name and surname in place.
+     * Nothing is modified when the citizen is rejected.
+     */
+    public static void validate(Citizen citizen) {
+        if (citizen == null) {
+            throw new CitizenValidationException("Citizen data cannot be null");
+        }
+        String name = citizen.getName();
+        String surname = citizen.getSurname();
+        int nameStart = trimStart(name);
+        int nameEnd = trimEnd(name, nameStart);
+        int surnameStart = trimStart(surname);
+        int surnameEnd = trimEnd(surname, surnameStart);
+
+        if (nameStart == nameEnd) {
+            throw new CitizenValidationException("Citizen name is required");
+        }
+        if (surnameStart == surnameEnd) {
+            throw new CitizenValidationException("Citizen surname is required");
+        }
+        if (nameEnd - nameStart < MIN_LENGTH) {
+            throw new CitizenValidationException("Name must be at least 2 characters long");
+        }
+        if (surnameEnd - surnameStart < MIN_LENGTH) {
+            throw new CitizenValidationException("Surname must be at least 2 characters long");
+        }
+        if (nameEnd - nameStart > MAX_LENGTH) {
+            throw new CitizenValidationException("Name cannot exceed 50 characters");
+        }
+        if (surnameEnd - surnameStart > MAX_LENGTH) {
+            throw new CitizenValidationException("Surname cannot exceed 50 characters");
+        }
+
+        String normalizedName = normalize(name, nameStart, nameEnd);
+        if (normalizedName == null) {
+            throw new CitizenValidationException("Name contains invalid characters");
+        }
+        String normalizedSurname = normalize(surname, surnameStart, surnameEnd);
+        if (normalizedSurname == null) {
+            throw new CitizenValidationException("Surname contains invalid characters");
+        }
+        citizen.setName(normalizedName);
+        citizen.setSurname(normalizedSurname);
+    }
+
+    /**
+     * Proper-case form of value[start, end), or null if it contains a character other
+     * than a letter (a-z, A-Z, U+00C0 to U+00FF), whitespace, a hyphen or an apostrophe.
+     * The range must already be trimmed.
+     */
+    static String normalize(String value, int start, int end) {
+        if (isLocaleSensitive(Locale.getDefault())) {
+            return normalizeByWord(value, start, end);
+        }
+        // Written lazily: until the output first differs from the input, it is a prefix of it
+        char[] out = null;
+        int length = 0;
+        boolean inWord = false;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (isWhitespace(c)) {
+                inWord = false;
+                continue;
+            }
+            if (!isNameChar(c)) {
+                return null;
+            }
+            char mapped;
+            if (inWord) {
+                mapped = Character.toLowerCase(c);
+            } else {
+                if (length > 0) {
+                    // First letter of a following word: one space for the whole run before it
+                    if (out == null && value.charAt(start + length) != ' ') {
+                        out = copyOf(value, start, length, end - start);
+                    }
+                    if (out != null) {
+                        out[length] = ' ';
+                    }
+                    length++;
+                }
+                mapped = Character.toUpperCase(c);
+                inWord = true;
+            }
+            if (out == null && value.charAt(start + length) != mapped) {
+                out = copyOf(value, start, length, end - start);
+            }
+            if (out != null) {
+                out[length] = mapped;
+            }
+            length++;
+        }
+        if (out != null) {
+            return new String(out, 0, length);
+        }
+        return start == 0 && length == value.length() ? value : value.substring(start, start + length);
+    }
+
+    /**
+     * Word by word with String.toLowerCase, for locales whose lower-casing differs from
+     * Character.toLowerCase on these letters: Turkish and Azeri map I to a dotless i,
+     * Lithuanian keeps the dot on accented I.
+     */
+    private static String normalizeByWord(String value, int start, int end) {
+        StringBuilder normalized = new StringBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            if (isWhitespace(value.charAt(i))) {
+                i++;
+                continue;
+            }
+            int wordEnd = i;
+            while (wordEnd < end && !isWhitespace(value.charAt(wordEnd))) {
+                if (!isNameChar(value.charAt(wordEnd))) {
+                    return null;
+                }
+                wordEnd++;
+            }
+            if (normalized.length() > 0) {
+                normalized.append(' ');
+            }
+            normalized.append(Character.toUpperCase(value.charAt(i)))
+                      .append(value.substring(i + 1, wordEnd).toLowerCase());
+            i = wordEnd;
+        }
+        return normalized.toString();
+    }
+
+    private static char[] copyOf(String value, int start, int length, int capacity) {
+        char[] out = new char[capacity];
+        value.getChars(start, start + length, out, 0);
+        return out;
+    }
+
+    /**
+     * Same characters String.trim removes: everything up to and including the space
+     */
+    private static int trimStart(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int start = 0;
+        while (start < value.length() && value.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(String value, int start) {
+        if (value == null) {
+            return 0;
+        }
+        int end = value.length();
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Whitespace as matched by \s in a regular expression
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= 'À' && c <= 'ÿ')
+                || c == '\'' || c == '-';
+    }
+
+    private static boolean isLocaleSensitive(Locale locale) {
+        String language = locale.getLanguage();
+        return language.equals("tr") || language.equals("az") || language.equals("lt");
+    }
+}
@@ -0,0 +1,367 @@
+package com.example.service;
+
+import com.example.config.AppConfig;
+import com.example.metrics.Metrics;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Responses to requests carrying an Idempotency-Key, so a retried request gets the
+ * first response again instead of running twice.
+ *
+ * The first request with a key claims it and runs; requests arriving with the same key
+ * meanwhile wait for its response, later ones get it replayed from memory until it
+ * expires. The caller decides which responses are kept; for any other the key is
+ * released and the next attempt runs again. A key sent with a different request than
+ * the one it was first used with is refused. Keys belong to a client, so two clients
+ * choosing the same key never see each other's responses.
+ *
+ * Memory holds at most maxEntries responses, least recently used go first. With
+ * persistence on, kept responses are also written to a SQLite file of their own and
+ * loaded again on start, so retries across a restart are answered too. The writes run
+ * on a background thread, off the request; a response is replayed from memory as soon
+ * as it is kept.
+ */
+public class IdempotencyStore {
+
+    private static final Counter EXECUTED = Metrics.counter("citizen.idempotency.requests", "outcome", "executed");
+    private static final Counter REPLAYED = Metrics.counter("citizen.idempotency.requests", "outcome", "replayed");
+    private static final Counter COALESCED = Metrics.counter("citizen.idempotency.requests", "outcome", "coalesced");
+    private static final Counter MISMATCHED = Metrics.counter("citizen.idempotency.requests", "outcome", "mismatched");
+    private static final Counter PERSIST_ERRORS = Metrics.counter("citizen.idempotency.persist.errors");
+    // Expired rows are deleted from the table every this many writes
+    private static final int PURGE_EVERY = 1000;
+    private static final int PERSIST_QUEUE_CAPACITY = 10000;
+
+    private static IdempotencyStore shared;
+
+    /**
+     * A response as kept for replay
+     */
+    public static final class StoredResponse {
+        public final int status;
+        public final String contentType;
+        public final String etag;
+        public final String body;
+
+        public StoredResponse(int status, String contentType, String etag, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.body = body;
+        }
+    }
+
+    /**
+     * What a request found under its key. The owner runs the request and must end the
+     * claim with complete or release; everyone else waits for response.
+     */
+    public static final class Claim {
+        private final String client;
+        private final String key;
+        private final String fingerprint;
+        private final long createdAt;
+        private final boolean owner;
+        private final boolean mismatch;
+        private final CompletableFuture<StoredResponse> response;
+
+        private Claim(String client, String key, String fingerprint, long createdAt, boolean owner, boolean mismatch,
+                      CompletableFuture<StoredResponse> response) {
+            this.client = client;
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.createdAt = createdAt;
+            this.owner = owner;
+            this.mismatch = mismatch;
+            this.response = response;
+        }
+
+        public boolean isOwner() {
+            return owner;
+        }
+
+        /**
+         * The key was first used with a different request
+         */
+        public boolean isMismatch() {
+            return mismatch;
+        }
+
+        public CompletableFuture<StoredResponse> response() {
+            return response;
+        }
+
+        private String mapKey() {
+            return mapKey(client, key);
+        }
+
+        // Header values cannot hold a line break, so no two pairs give the same key
+        private static String mapKey(String client, String key) {
+            return client + "\n" + key;
+        }
+    }
+
+    private final long ttlMillis;
+    private final Cache<String, Claim> claims;
+    private final ConcurrentMap<String, Claim> map;
+    private final Connection connection;
+    private final ExecutorService persister;
+    private int writesSincePurge;
+
+    /**
+     * @param jdbcUrl SQLite database of its own for the table, null to keep responses in memory only
+     */
+    public IdempotencyStore(Duration ttl, int maxEntries, String jdbcUrl) {
+        this.ttlMillis = ttl.toMillis();
+        this.claims = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                // Evict on the calling thread, so no more than maxEntries are ever held
+                .executor(Runnable::run)
+                .expireAfter(new Expiry<String, Claim>() {
+                    // Counted from the first request, also for responses loaded from the table
+                    @Override
+                    public long expireAfterCreate(String key, Claim claim, long currentTime) {
+                        return remainingNanos(claim);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Claim claim, long currentTime, long currentDuration) {
+                        return remainingNanos(claim);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Claim claim, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        this.map = claims.asMap();
+        this.connection = jdbcUrl == null ? null : open(jdbcUrl);
+        if (connection != null) {
+            load(maxEntries);
+            persister = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(PERSIST_QUEUE_CAPACITY), task -> {
+                        Thread thread = new Thread(task, "citizen-idempotency-writer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        } else {
+            persister = null;
+        }
+        Gauge.builder("citizen.idempotency.keys", claims, Cache::estimatedSize)
+                .description("Idempotency keys held in memory")
+                .register(Metrics.REGISTRY);
+    }
+
+    /**
+     * The store shared by all requests, created on first use
+     */
+    public static synchronized IdempotencyStore shared() {
+        if (shared == null) {
+            boolean persist = AppConfig.getBoolean("citizen.idempotency.persist", false);
+            shared = new IdempotencyStore(
+                Duration.ofSeconds(AppConfig.getLong("citizen.idempotency.ttl-seconds", 86400)),
+                AppConfig.getInt("citizen.idempotency.max-entries", 100000),
+                persist ? AppConfig.getString("citizen.idempotency.db-url", "jdbc:sqlite:citizens-idempotency.db") : null);
+        }
+        return shared;
+    }
+
+    public static synchronized void shutdownShared() {
+        if (shared != null) {
+            shared.close();
+            shared = null;
+        }
+    }
+
+    /**
+     * Claim the key of a client for a request, or find the request that has it. The
+     * client is who sent it, e.g. an API key or address; the fingerprint identifies
+     * the request, e.g. its body.
+     */
+    public Claim claim(String client, String key, String fingerprint) {
+        Claim mine = new Claim(client, key, fingerprint, System.currentTimeMillis(), true, false, new CompletableFuture<>());
+        Claim found = map.putIfAbsent(mine.mapKey(), mine);
+        if (found == null) {
+            EXECUTED.increment();
+            return mine;
+        }
+        if (!found.fingerprint.equals(fingerprint)) {
+            MISMATCHED.increment();
+            return new Claim(client, key, fingerprint, found.createdAt, false, true, found.response);
+        }
+        (found.response.isDone() ? REPLAYED : COALESCED).increment();
+        return new Claim(client, key, fingerprint, found.createdAt, false, false, found.response);
+    }
+
+    /**
+     * Keep the owner's response for replay and hand it to those waiting. Also kept when
+     * the claim was released meanwhile, e.g. after a timeout, unless another request has
+     * claimed the key since.
+     */
+    public void complete(Claim claim, StoredResponse response) {
+        if (!claim.owner) {
+            throw new IllegalArgumentException("Only the owner completes a claim");
+        }
+        Claim kept = new Claim(claim.client, claim.key, claim.fingerprint, claim.createdAt, false, false,
+                CompletableFuture.completedFuture(response));
+        if (map.replace(claim.mapKey(), claim, kept) || map.putIfAbsent(claim.mapKey(), kept) == null) {
+            persist(kept, response);
+        }
+        claim.response.complete(response);
+    }
+
+    /**
+     * Give the key up without keeping a response, so the next request with it runs.
+     * Those waiting get the given response, or null to tell them to retry. Does nothing
+     * once the claim has completed.
+     */
+    public void release(Claim claim, StoredResponse response) {
+        if (claim.owner && claim.response.complete(response)) {
+            map.remove(claim.mapKey(), claim);
+        }
+    }
+
+    /**
+     * Finish writing the responses already kept, then close the table
+     */
+    public void close() {
+        if (connection == null) {
+            return;
+        }
+        persister.shutdown();
+        try {
+            if (!persister.awaitTermination(5, TimeUnit.SECONDS)) {
+                persister.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            PERSIST_ERRORS.increment();
+        }
+    }
+
+    /**
+     * Responses held in memory
+     */
+    long size() {
+        claims.cleanUp();
+        return claims.estimatedSize();
+    }
+
+    private long remainingNanos(Claim claim) {
+        return Math.max(0, TimeUnit.MILLISECONDS.toNanos(claim.createdAt + ttlMillis - System.currentTimeMillis()));
+    }
+
+    private static Connection open(String jdbcUrl) {
+        try {
+            Connection connection = DriverManager.getConnection(jdbcUrl);
+            try (Statement statement = connection.createStatement()) {
+                // As SQLiteConnectionProvider sets up the registry file
+                statement.execute("PRAGMA journal_mode = WAL");
+                statement.execute("PRAGMA synchronous = NORMAL");
+                statement.execute("PRAGMA busy_timeout = 5000");
+                statement.execute("CREATE TABLE IF NOT EXISTS citizen_idempotency ("
+                        + "client TEXT NOT NULL, idempotency_key TEXT NOT NULL, fingerprint TEXT NOT NULL, "
+                        + "status INTEGER NOT NULL, content_type TEXT, etag TEXT, body TEXT, created_at INTEGER NOT NULL, "
+                        + "PRIMARY KEY (client, idempotency_key))");
+                statement.execute("CREATE INDEX IF NOT EXISTS citizen_idempotency_created "
+                        + "ON citizen_idempotency(created_at)");
+            }
+            return connection;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot open the idempotency table at " + jdbcUrl, e);
+        }
+    }
+
+    /**
+     * Drop expired rows and bring back the newest others, oldest first so the newest
+     * survive if there are more than memory holds
+     */
+    private void load(int maxEntries) {
+        long now = System.currentTimeMillis();
+        try {
+            purge(now);
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT * FROM (SELECT client, idempotency_key, fingerprint, status, content_type, etag, body, "
+                            + "created_at FROM citizen_idempotency ORDER BY created_at DESC LIMIT ?) ORDER BY created_at")) {
+                select.setInt(1, maxEntries);
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next()) {
+                        StoredResponse response = new StoredResponse(rows.getInt(4), rows.getString(5),
+                                rows.getString(6), rows.getString(7));
+                        Claim kept = new Claim(rows.getString(1), rows.getString(2), rows.getString(3),
+                                rows.getLong(8), false, false, CompletableFuture.completedFuture(response));
+                        map.put(kept.mapKey(), kept);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot read the idempotency table", e);
+        }
+    }
+
+    private void persist(Claim kept, StoredResponse response) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            persister.execute(() -> write(kept, response));
+        } catch (RejectedExecutionException e) {
+            // Memory still has it, only a restart would forget it
+            PERSIST_ERRORS.increment();
+        }
+    }
+
+    // Only ever on the persister thread
+    private void write(Claim kept, StoredResponse response) {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT OR REPLACE INTO citizen_idempotency "
+                        + "(client, idempotency_key, fingerprint, status, content_type, etag, body, created_at) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+            insert.setString(1, kept.client);
+            insert.setString(2, kept.key);
+            insert.setString(3, kept.fingerprint);
+            insert.setInt(4, response.status);
+            insert.setString(5, response.contentType);
+            insert.setString(6, response.etag);
+            insert.setString(7, response.body);
+            insert.setLong(8, kept.createdAt);
+            insert.executeUpdate();
+            if (++writesSincePurge >= PURGE_EVERY) {
+                purge(System.currentTimeMillis());
+            }
+        } catch (SQLException e) {
+            PERSIST_ERRORS.increment();
+        }
+    }
+
+    private void purge(long now) throws SQLException {
+        writesSincePurge = 0;
+        try (PreparedStatement delete = connection.prepareStatement(
+                "DELETE FROM citizen_idempotency WHERE created_at <= ?")) {
+            delete.setLong(1, now - ttlMillis);
+            delete.executeUpdate();
+        }
+    }
+}
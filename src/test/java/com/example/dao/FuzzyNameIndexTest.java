@@ -0,0 +1,55 @@
+package com.example.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FuzzyNameIndexTest {
+
+    @Test
+    public void testPhoneticKeys() {
+        assertEquals(List.of("jean", "pierre", "obrien"), PhoneticKeys.words("Jean-Pierre  O'Brien"));
+        assertEquals(List.of("muller", "francoise"), PhoneticKeys.words("Müller Françoise"));
+        assertEquals(PhoneticKeys.metaphone("philip"), PhoneticKeys.metaphone("fillip"));
+        assertEquals(PhoneticKeys.metaphone("catherine"), PhoneticKeys.metaphone("katherine"));
+        assertEquals(PhoneticKeys.metaphone("knight"), PhoneticKeys.metaphone("nite"));
+        assertNotEquals(PhoneticKeys.metaphone("smith"), PhoneticKeys.metaphone("jones"));
+    }
+
+    @Test
+    public void testEditDistance() {
+        assertEquals(0, FuzzyNameIndex.editDistance("smith", "smith", 2));
+        assertEquals(1, FuzzyNameIndex.editDistance("smith", "smyth", 2));
+        assertEquals(1, FuzzyNameIndex.editDistance("john", "jhon", 2), "A swap is one edit");
+        assertEquals(2, FuzzyNameIndex.editDistance("schmidt", "shmit", 2));
+        assertEquals(3, FuzzyNameIndex.editDistance("anna", "bartholomew", 2), "Beyond the bound gives bound + 1");
+    }
+
+    @Test
+    public void testSearch() {
+        FuzzyNameIndex index = new FuzzyNameIndex();
+        index.put(1, 0, "John", "Smith");
+        index.put(2, 0, "Jon", "Smyth");
+        index.put(3, 0, "Philip", "Schmidt");
+        index.put(4, 0, "Anna", "Smith");
+        index.put(5, 0, "Zoë", "Müller");
+
+        assertEquals(List.of(2L, 1L), index.search("jon smith", 10), "Equally close, the shorter name first");
+        assertEquals(2L, index.search("jon smyth", 10).get(0), "The exact spelling ranks first");
+        assertEquals(List.of(3L), index.search("fillip shmidt", 10));
+        assertEquals(List.of(5L), index.search("zoe muller", 10));
+        assertEquals(List.of(4L), index.search("ana", 10));
+        assertTrue(index.search("bartholomew", 10).isEmpty());
+        assertEquals(1, index.search("smith", 1).size());
+
+        index.put(4, 1, "Anna", "Jones");
+        assertTrue(index.search("ana smith", 10).isEmpty(), "Updates replace the indexed words");
+        index.put(4, 0, "Anna", "Smith");
+        assertEquals(List.of(4L), index.search("ana jones", 10), "An older version does not overwrite a newer one");
+        index.remove(4);
+        assertTrue(index.search("ana", 10).isEmpty());
+        assertEquals(4, index.size());
+    }
+}
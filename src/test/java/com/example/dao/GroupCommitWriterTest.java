@@ -0,0 +1,89 @@
+package com.example.dao;
+
+import com.example.entity.Citizen;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GroupCommitWriterTest {
+
+    private static EntityManagerFactory emf;
+    private static GroupCommitWriter writer;
+
+    @BeforeAll
+    public static void setup() {
+        emf = Persistence.createEntityManagerFactory("citizenPU",
+                Map.of(SQLiteConnectionProvider.URL, "jdbc:sqlite:target/group-commit-test.db",
+                    "hibernate.hbm2ddl.auto", "create-drop"));
+        // As HibernateCitizenDAO does for a recreated schema, the id generator reads citizen_ids
+        ChangeLog.install(emf);
+        CitizenIds.install(emf);
+        // A long wait so concurrently submitted writes land in the same group
+        writer = new GroupCommitWriter(emf, 1000, 64, 50_000, 1000);
+    }
+
+    @Test
+    public void testConcurrentWritesAreAllCommitted() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Citizen>> saved = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                Citizen citizen = new Citizen("Group" + i, "Commit");
+                saved.add(callers.submit(() -> writer.submit(em -> {
+                    em.persist(citizen);
+                    return citizen;
+                }).join()));
+            }
+            for (Future<Citizen> future : saved) {
+                assertNotNull(future.get().getId(), "Every queued write should be committed");
+            }
+        } finally {
+            callers.shutdown();
+        }
+
+        long stored = emf.createEntityManager()
+                .createQuery("SELECT COUNT(c) FROM Citizen c WHERE c.surnameKey = 'commit'", Long.class)
+                .getSingleResult();
+        assertEquals(200, stored);
+    }
+
+    @Test
+    public void testFailingWriteDoesNotFailItsGroup() {
+        CompletableFuture<Citizen> first = writer.submit(em -> {
+            Citizen citizen = new Citizen("Same", "Name");
+            em.persist(citizen);
+            return citizen;
+        });
+        CompletableFuture<Citizen> duplicate = writer.submit(em -> {
+            Citizen citizen = new Citizen("Same", "Name");
+            em.persist(citizen);
+            return citizen;
+        });
+        CompletableFuture<Citizen> other = writer.submit(em -> {
+            Citizen citizen = new Citizen("Other", "Name");
+            em.persist(citizen);
+            return citizen;
+        });
+
+        assertNotNull(first.join().getId());
+        assertNotNull(other.join().getId(), "Writes grouped with a failing one should still commit");
+        assertThrows(CompletionException.class, duplicate::join, "The duplicate should fail on its own");
+    }
+
+    @AfterAll
+    public static void teardown() {
+        writer.shutdown();
+        emf.close();
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.dao;
+
+import com.example.entity.Citizen;
+import com.example.entity.CitizenChange;
+import com.example.exception.CitizenVersionConflictException;
+import com.example.exception.DuplicateCitizenException;
+import com.example.metrics.Metrics;
+import com.example.service.ChangeFeed;
+import io.micrometer.core.instrument.Timer;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class HibernateCitizenDAOTest {
+
+    private static CitizenDAO citizenDAO;
+    private static String previousUrl;
+
+    @TempDir
+    static Path dir;
+
+    @BeforeAll
+    public static void setup() {
+        // A file of its own, never the registry in the working directory
+        previousUrl = System.getProperty(SQLiteConnectionProvider.URL);
+        System.setProperty(SQLiteConnectionProvider.URL, "jdbc:sqlite:" + dir.resolve("citizens.db"));
+        citizenDAO = new HibernateCitizenDAO();
+    }
+
+    @Test
+    @Order(1)
+    public void testSaveAndFindById() {
+        Citizen citizen = new Citizen("John", "Doe");
+        Citizen saved = citizenDAO.save(citizen);
+        assertNotNull(saved.getId(), "Saved citizen should have an ID");
+
+        Citizen retrieved = citizenDAO.findById(saved.getId());
+        assertNotNull(retrieved, "Citizen should be retrievable by ID");
+        assertEquals("John", retrieved.getName());
+        assertEquals("Doe", retrieved.getSurname());
+    }
+
+    @Test
+    @Order(2)
+    public void testDuplicateFullName() {
+        Citizen john = citizenDAO.findAll().get(0);
+        assertTrue(citizenDAO.existsByFullName(" JOHN ", "doe", null), "Lookup should ignore case and padding");
+        assertFalse(citizenDAO.existsByFullName("John", "Doe", john.getId()), "Excluded citizen is not a duplicate");
+
+        assertThrows(DuplicateCitizenException.class, () -> citizenDAO.save(new Citizen("john", "DOE")),
+                "The unique full-name index should reject a duplicate");
+    }
+
+    @Test
+    @Order(3)
+    public void testFindAll() {
+        List<Citizen> all = citizenDAO.findAll();
+        assertFalse(all.isEmpty(), "There should be at least one citizen in the database");
+    }
+
+    @Test
+    @Order(4)
+    public void testFindByName() {
+        List<Citizen> matches = citizenDAO.findByName("John");
+        assertFalse(matches.isEmpty(), "There should be at least one citizen with the name John");
+    }
+
+    @Test
+    @Order(5)
+    public void testFindPage() {
+        Citizen first = citizenDAO.save(new Citizen("Jane", "Roe"));
+        Citizen second = citizenDAO.save(new Citizen("Mary", "Major"));
+
+        List<Citizen> page = citizenDAO.findPage(first.getId() - 1, 1);
+        assertEquals(1, page.size(), "Page should be capped at the limit");
+        assertEquals(first.getId(), page.get(0).getId());
+
+        List<Citizen> next = citizenDAO.findPage(page.get(0).getId(), 10);
+        assertFalse(next.isEmpty(), "Next page should continue after the cursor");
+        assertEquals(second.getId(), next.get(0).getId());
+        assertTrue(next.stream().allMatch(c -> c.getId() > first.getId()),
+                "Next page should only contain ids after the cursor");
+    }
+
+    @Test
+    @Order(6)
+    public void testStreamAll() {
+        List<Long> streamed = new ArrayList<>();
+        long count = citizenDAO.streamAll(2, c -> streamed.add(c.getId()));
+
+        assertEquals(citizenDAO.findAll().size(), count, "Every row should be streamed");
+        assertEquals(count, streamed.size());
+        for (int i = 1; i < streamed.size(); i++) {
+            assertTrue(streamed.get(i - 1) < streamed.get(i), "Rows should be streamed in id order");
+        }
+    }
+
+    @Test
+    @Order(7)
+    public void testSaveAll() {
+        List<Citizen> batch = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            batch.add(new Citizen("Bulk" + i, "Import"));
+        }
+        citizenDAO.saveAll(batch);
+
+        assertTrue(batch.stream().allMatch(c -> c.getId() != null), "Every citizen should get an ID");
+        assertEquals(250, batch.stream().map(Citizen::getId).distinct().count(), "IDs should be unique");
+        assertNotNull(citizenDAO.findById(batch.get(249).getId()), "Last citizen of the chunk should be stored");
+    }
+
+    @Test
+    @Order(8)
+    public void testIndexedLookups() {
+        assertEquals(citizenDAO.findAll().size(), citizenDAO.count());
+        assertTrue(citizenDAO.existsAny());
+
+        assertEquals(250, citizenDAO.findBySurname("IMPORT").size(), "Surname lookup should ignore case");
+        assertEquals(250, citizenDAO.findBySurnamePrefix("imp").size());
+        assertTrue(citizenDAO.findBySurnamePrefix("Ma").stream().allMatch(c -> c.getSurname().startsWith("Ma")));
+        assertTrue(citizenDAO.findBySurnamePrefix("Impz").isEmpty());
+
+        List<Citizen> jane = citizenDAO.findByFullName("jane", " ROE");
+        assertEquals(1, jane.size());
+        assertEquals("Jane", jane.get(0).getName());
+    }
+
+    @Test
+    @Order(9)
+    public void testSearch() {
+        List<Citizen> bySurname = citizenDAO.search("mpor", 10);
+        assertEquals(10, bySurname.size(), "Search should be capped at the limit");
+        assertTrue(bySurname.stream().allMatch(c -> c.getSurname().equals("Import")));
+
+        List<Citizen> both = citizenDAO.search("MAR maj", 10);
+        assertEquals(1, both.size(), "Terms should match across name and surname, ignoring case");
+        assertEquals("Mary", both.get(0).getName());
+        List<Citizen> withShortTerm = citizenDAO.search("ma major", 10);
+        assertEquals(1, withShortTerm.size(), "Short terms should narrow the result too");
+        assertEquals(both.get(0).getId(), withShortTerm.get(0).getId());
+        assertTrue(citizenDAO.search("zz major", 10).isEmpty());
+
+        assertFalse(citizenDAO.search("oe", 10).isEmpty(), "Short terms should still be found");
+        assertTrue(citizenDAO.search("\"zzz\" OR *", 10).isEmpty(), "FTS operators should be taken literally");
+        assertTrue(citizenDAO.search("_", 10).isEmpty(), "LIKE wildcards should be taken literally");
+        assertTrue(citizenDAO.findByName("%").isEmpty());
+    }
+
+    @Test
+    @Order(10)
+    public void testSecondLevelCache() {
+        Citizen saved = citizenDAO.save(new Citizen("Cached", "Citizen"));
+        CacheRegionStatistics region = HibernateCitizenDAO.statistics()
+                .getDomainDataRegionStatistics(Citizen.CACHE_REGION);
+
+        citizenDAO.findById(saved.getId());
+        long hits = region.getHitCount();
+        long statements = HibernateCitizenDAO.statistics().getPrepareStatementCount();
+        Citizen cached = citizenDAO.findById(saved.getId());
+        assertEquals("Cached", cached.getName());
+        assertTrue(region.getHitCount() > hits, "Repeated lookups should be served from the cache");
+        assertEquals(statements, HibernateCitizenDAO.statistics().getPrepareStatementCount(), "A cache hit should not touch JDBC");
+
+        saved.setName("Renamed");
+        citizenDAO.save(saved);
+        assertEquals("Renamed", citizenDAO.findById(saved.getId()).getName(), "Updates should refresh the cache");
+
+        citizenDAO.delete(saved.getId());
+        assertNull(citizenDAO.findById(saved.getId()), "Deletes should evict the cached entry");
+    }
+
+    @Test
+    @Order(11)
+    public void testDelete() {
+        List<Citizen> all = citizenDAO.findAll();
+        assertFalse(all.isEmpty(), "There should be citizens to delete");
+
+        Long idToDelete = all.get(0).getId();
+        boolean deleted = citizenDAO.delete(idToDelete);
+        assertTrue(deleted, "Citizen should be deleted");
+
+        Citizen deletedCitizen = citizenDAO.findById(idToDelete);
+        assertNull(deletedCitizen, "Deleted citizen should not be found");
+    }
+
+    @Test
+    @Order(12)
+    public void testMetrics() {
+        Timer findById = Metrics.REGISTRY.find("citizen.dao.calls").tag("operation", "findById").timer();
+        assertNotNull(findById, "DAO calls should be timed per operation");
+        long calls = findById.count();
+        double rowsRead = Metrics.REGISTRY.get("citizen.dao.rows.read").counter().count();
+
+        Citizen saved = citizenDAO.save(new Citizen("Metric", "Sample"));
+        citizenDAO.findById(saved.getId());
+        assertEquals(calls + 1, findById.count());
+        assertEquals(rowsRead + 1, Metrics.REGISTRY.get("citizen.dao.rows.read").counter().count());
+
+        String scrape = Metrics.REGISTRY.scrape();
+        assertTrue(scrape.contains("citizen_dao_calls_seconds_bucket{operation=\"findById\""), "Timers should export a histogram");
+        assertTrue(scrape.contains("citizen_db_commit_seconds_count"), "Commits should be timed");
+        assertTrue(scrape.contains("hikaricp_connections_acquire_seconds"), "Pool wait time should be exported");
+        assertTrue(scrape.contains("hibernate_second_level_cache_requests"), "Cache hits and misses should be exported");
+    }
+
+    @Test
+    @Order(13)
+    public void testVersioning() {
+        long registryVersion = RegistryVersion.current();
+        Citizen saved = citizenDAO.save(new Citizen("Versioned", "Sample"));
+        assertEquals(0L, saved.getVersion());
+        assertTrue(RegistryVersion.current() > registryVersion, "Saves should move the registry version");
+
+        Citizen stale = new Citizen("Stale", "Sample");
+        stale.setId(saved.getId());
+        stale.setVersion(saved.getVersion());
+        saved.setName("Fresh");
+        assertEquals(1L, citizenDAO.save(saved).getVersion());
+        assertThrows(CitizenVersionConflictException.class, () -> citizenDAO.save(stale),
+            "An update based on an old version should be rejected");
+
+        Citizen unversioned = new Citizen("Latest", "Sample");
+        unversioned.setId(saved.getId());
+        assertEquals(2L, citizenDAO.save(unversioned).getVersion(), "Without a version the update should win");
+        assertEquals("Latest", citizenDAO.findById(saved.getId()).getName());
+    }
+
+    @Test
+    @Order(14)
+    public void testFindByIds() {
+        List<Citizen> batch = new ArrayList<>();
+        for (int i = 0; i < 700; i++) {
+            batch.add(new Citizen("Batch" + i, "Lookup"));
+        }
+        List<Long> ids = new ArrayList<>();
+        for (Citizen citizen : citizenDAO.saveAll(batch)) {
+            ids.add(0, citizen.getId());
+        }
+        ids.add(2, -1L);
+        ids.add(ids.get(0));
+
+        List<Citizen> found = citizenDAO.findByIds(ids);
+        assertEquals(700, found.size(), "Unknown ids are skipped and repeated ids returned once");
+        assertEquals("Batch699", found.get(0).getName(), "Citizens should come back in request order");
+        assertEquals("Batch0", found.get(699).getName());
+        assertTrue(citizenDAO.findByIds(List.of()).isEmpty());
+    }
+
+    @Test
+    @Order(15)
+    public void testChangeLog() {
+        long before = citizenDAO.latestChangeSeq();
+        Citizen saved = citizenDAO.save(new Citizen("Logged", "Sample"));
+        saved.setName("Relogged");
+        citizenDAO.save(saved);
+        citizenDAO.delete(saved.getId());
+
+        List<CitizenChange> changes = citizenDAO.findChangesAfter(before, 10);
+        assertEquals(3, changes.size(), "Every write should be logged in its own transaction");
+        assertEquals(before + 3, citizenDAO.latestChangeSeq());
+        assertEquals(CitizenChange.Type.CREATED, changes.get(0).getType());
+        assertEquals(CitizenChange.Type.UPDATED, changes.get(1).getType());
+        assertEquals("Relogged", changes.get(1).getName());
+        assertEquals(1L, changes.get(1).getVersion());
+        assertEquals(CitizenChange.Type.DELETED, changes.get(2).getType());
+        assertEquals(saved.getId(), changes.get(2).getCitizenId());
+        assertTrue(changes.get(0).getSeq() < changes.get(1).getSeq() && changes.get(1).getSeq() < changes.get(2).getSeq());
+    }
+
+    @Test
+    @Order(16)
+    public void testChangeFeed() throws InterruptedException {
+        ChangeFeed feed = new ChangeFeed(citizenDAO, 2, 50);
+        try {
+            long start = feed.latestSeq();
+            assertTrue(feed.next(start, 10, 10).isEmpty(), "Nothing should be sent before a change");
+
+            for (String name : List.of("Fedone", "Fedtwo", "Fedthree")) {
+                citizenDAO.save(new Citizen(name, "Follower"));
+            }
+            assertFalse(feed.next(start, 10, 5000).isEmpty(), "A follower should be woken by new changes");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (feed.latestSeq() < start + 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            List<CitizenChange> caughtUp = feed.next(start, 10, 1000);
+            assertEquals(3, caughtUp.size(), "A follower behind the buffer should catch up from the log");
+            assertEquals("Fedone", caughtUp.get(0).getName());
+            List<CitizenChange> buffered = feed.next(start + 1, 10, 1000);
+            assertEquals(List.of("Fedtwo", "Fedthree"), List.of(buffered.get(0).getName(), buffered.get(1).getName()));
+        } finally {
+            feed.shutdown();
+        }
+    }
+
+    @Test
+    @Order(17)
+    public void testFuzzySearch() {
+        Citizen saved = citizenDAO.save(new Citizen("Katharina", "Wojciechowska"));
+        List<Citizen> found = citizenDAO.fuzzySearch("catarina wojciechowski", 5);
+        assertEquals(saved.getId(), found.get(0).getId(), "Misspelled names should be found");
+
+        saved.setSurname("Nowak");
+        citizenDAO.save(saved);
+        assertTrue(citizenDAO.fuzzySearch("katarina wojciechowski", 5).isEmpty(), "Updates should reach the index");
+        assertEquals(saved.getId(), citizenDAO.fuzzySearch("katarina novak", 5).get(0).getId());
+        citizenDAO.delete(saved.getId());
+        assertTrue(citizenDAO.fuzzySearch("katarina novak", 5).isEmpty(), "Deletes should reach the index");
+    }
+
+    @AfterAll
+    public static void teardown() {
+        try {
+            HibernateCitizenDAO.closeEntityManagerFactory();
+        } finally {
+            // Later test classes in the same JVM see the setting as it was
+            if (previousUrl == null) {
+                System.clearProperty(SQLiteConnectionProvider.URL);
+            } else {
+                System.setProperty(SQLiteConnectionProvider.URL, previousUrl);
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.dao;
+
+import com.example.entity.Citizen;
+import com.example.entity.CitizenChange;
+import com.example.exception.CitizenVersionConflictException;
+import com.example.exception.DuplicateCitizenException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryCitizenDAOTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testSaveUpdateAndDelete() {
+        CitizenDAO dao = open(1024 * 1024);
+        Citizen saved = dao.save(new Citizen("John", "Doe"));
+        assertEquals(1L, saved.getId());
+        assertEquals(0L, saved.getVersion());
+        assertThrows(DuplicateCitizenException.class, () -> dao.save(new Citizen("john ", "DOE")));
+
+        Citizen update = dao.findById(saved.getId());
+        update.setSurname("Smith");
+        assertEquals(1L, dao.save(update).getVersion());
+        assertEquals("Doe", saved.getSurname(), "Stored citizens are copies");
+        assertThrows(CitizenVersionConflictException.class, () -> dao.save(update), "Version 0 is stale now");
+
+        assertTrue(dao.findBySurname("Doe").isEmpty());
+        assertEquals(1, dao.findBySurname("smith").size());
+        assertTrue(dao.existsByFullName("John", "Smith", null));
+        assertFalse(dao.existsByFullName("John", "Smith", saved.getId()));
+        assertTrue(dao.delete(saved.getId()));
+        assertFalse(dao.delete(saved.getId()));
+        assertNull(dao.findById(saved.getId()));
+        assertFalse(dao.existsAny());
+        dao.close();
+    }
+
+    @Test
+    public void testQueries() {
+        CitizenDAO dao = open(1024 * 1024);
+        List<Citizen> batch = new ArrayList<>();
+        for (String[] name : new String[][] {
+                {"Anna", "Smith"}, {"Johanna", "Smithers"}, {"Hans", "Schmidt"}, {"Anne", "Smith"}}) {
+            batch.add(new Citizen(name[0], name[1]));
+        }
+        dao.saveAll(batch);
+        assertEquals(List.of(1L, 2L, 3L, 4L), ids(dao.findAll()));
+
+        List<Citizen> clash = List.of(new Citizen("Zoe", "New"), new Citizen("Anna", "Smith"));
+        assertThrows(DuplicateCitizenException.class, () -> dao.saveAll(clash));
+        assertEquals(4, dao.count(), "A rejected batch stores nothing");
+
+        assertEquals(List.of(1L, 4L, 2L), ids(dao.findBySurnamePrefix("smi")));
+        assertEquals(List.of(1L, 2L, 3L, 4L), ids(dao.findByName("an")));
+        assertEquals(List.of(1L, 2L), ids(dao.findByName("anna")));
+        assertEquals(List.of(1L, 2L), ids(dao.search("anna smith", 10)), "Shorter full names rank first");
+        assertEquals(List.of(2L), ids(dao.search("jo smith", 10)), "Short terms should narrow the result");
+        assertEquals(List.of(3L, 4L), ids(dao.findByIds(List.of(99L, 3L, 4L, 3L))));
+        assertEquals(List.of(3L, 4L), ids(dao.findPage(2L, 10)));
+
+        dao.delete(2L);
+        List<Citizen> streamed = new ArrayList<>();
+        assertEquals(3, dao.streamAll(2, streamed::add));
+        assertEquals(List.of(1L, 3L, 4L), ids(streamed));
+        dao.close();
+    }
+
+    @Test
+    public void testRecoversFromLogAndSnapshot() throws IOException {
+        CitizenDAO first = open(1024 * 1024);
+        first.save(new Citizen("John", "Doe"));
+        first.save(new Citizen("Jane", "Doe"));
+        first.delete(1L);
+        // Not closed: the next instance only has the log to go on, as after a crash
+
+        CitizenDAO second = open(1024 * 1024);
+        assertEquals(List.of(2L), ids(second.findAll()));
+        assertEquals(3, second.latestChangeSeq());
+        assertEquals(3L, second.save(new Citizen("Jim", "Doe")).getId(), "Ids are not reused");
+        second.close();
+        assertEquals(1, files("snapshot-").size(), "Closing writes a snapshot");
+        assertEquals(1, files("wal-").size(), "Segments covered by the snapshot are deleted");
+
+        CitizenDAO third = open(1024 * 1024);
+        Citizen jane = third.findById(2L);
+        jane.setName("Janet");
+        third.save(jane);
+        third.close();
+
+        CitizenDAO fourth = open(1024 * 1024);
+        assertEquals(List.of("Janet", "Jim"), List.of(fourth.findById(2L).getName(), fourth.findById(3L).getName()));
+        assertEquals(1L, fourth.findById(2L).getVersion());
+        assertEquals(5, fourth.latestChangeSeq());
+        fourth.close();
+    }
+
+    @Test
+    public void testSnapshotsWhenLogGrows() throws Exception {
+        CitizenDAO dao = open(512);
+        for (int i = 0; i < 100; i++) {
+            dao.save(new Citizen("Name" + (char) ('a' + i % 26) + (char) ('a' + i / 26), "Snap"));
+        }
+        // The snapshot runs in the background
+        for (int i = 0; i < 100 && files("snapshot-").isEmpty(); i++) {
+            Thread.sleep(20);
+        }
+        assertFalse(files("snapshot-").isEmpty(), "A snapshot should be written past the segment size");
+        dao.close();
+        CitizenDAO reopened = open(512);
+        assertEquals(100, reopened.count());
+        reopened.close();
+    }
+
+    @Test
+    public void testTornLogTailIsCutOff() throws IOException {
+        CitizenDAO first = open(1024 * 1024);
+        first.save(new Citizen("John", "Doe"));
+        first.save(new Citizen("Jane", "Doe"));
+        Path segment = files("wal-").get(0);
+        // Half of a record that never made it to disk in full
+        Files.write(segment, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        CitizenDAO second = open(1024 * 1024);
+        assertEquals(2, second.count());
+        second.save(new Citizen("Jim", "Doe"));
+        CitizenDAO third = open(1024 * 1024);
+        assertEquals(3, third.count(), "Writes after the cut-off survive the next restart");
+        third.close();
+    }
+
+    @Test
+    public void testChangeHistory() {
+        InMemoryCitizenDAO dao = new InMemoryCitizenDAO(dir, false, 1024 * 1024, 2);
+        dao.save(new Citizen("John", "Doe"));
+        dao.save(new Citizen("Jane", "Doe"));
+        dao.delete(1L);
+
+        List<CitizenChange> recent = dao.findChangesAfter(1, 10);
+        assertEquals(List.of(CitizenChange.Type.CREATED, CitizenChange.Type.DELETED),
+            List.of(recent.get(0).getType(), recent.get(1).getType()));
+        List<CitizenChange> behind = dao.findChangesAfter(0, 10);
+        assertEquals(CitizenChange.Type.RESET, behind.get(0).getType(), "Only two changes are kept");
+        assertEquals(1, behind.get(0).getSeq());
+        assertEquals(3, behind.size());
+        dao.close();
+    }
+
+    private CitizenDAO open(long snapshotAfterBytes) {
+        return new InMemoryCitizenDAO(dir, true, snapshotAfterBytes, 100);
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)
+                    && !file.getFileName().toString().endsWith(".tmp"))
+                .sorted()
+                .toList();
+        }
+    }
+
+    private static List<Long> ids(List<Citizen> citizens) {
+        return citizens.stream().map(Citizen::getId).toList();
+    }
+}
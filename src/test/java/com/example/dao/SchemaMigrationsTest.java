@@ -0,0 +1,104 @@
+package com.example.dao;
+
+import com.example.entity.Citizen;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SchemaMigrationsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testKeepsDataAcrossRestarts() throws SQLException {
+        String url = "jdbc:sqlite:" + dir.resolve("citizens.db");
+        HibernateCitizenDAO first = new HibernateCitizenDAO(url, 0, 1);
+        Citizen saved = first.save(new Citizen("Kept", "Across"));
+        long latest = first.latestChangeSeq();
+        first.close();
+        assertEquals(SchemaMigrations.latest(), schemaVersion(url));
+
+        HibernateCitizenDAO reopened = new HibernateCitizenDAO(url, 0, 1);
+        try {
+            assertEquals(1, reopened.count());
+            assertEquals("Kept", reopened.findById(saved.getId()).getName());
+            assertEquals(saved.getId(), reopened.search("acros", 5).get(0).getId());
+            assertEquals(latest, reopened.latestChangeSeq(), "The change log is kept too");
+            assertNotEquals(saved.getId(), reopened.save(new Citizen("Second", "Boot")).getId());
+        } finally {
+            reopened.close();
+        }
+        assertEquals(SchemaMigrations.latest(), schemaVersion(url));
+    }
+
+    @Test
+    public void testNeverReusesTheIdOfADeletedCitizen() {
+        String url = "jdbc:sqlite:" + dir.resolve("citizens.db");
+        HibernateCitizenDAO first = new HibernateCitizenDAO(url, 0, 1);
+        first.save(new Citizen("Stays", "Here"));
+        Citizen highest = first.save(new Citizen("Goes", "Away"));
+        first.delete(highest.getId());
+        first.close();
+
+        HibernateCitizenDAO reopened = new HibernateCitizenDAO(url, 0, 1);
+        try {
+            assertTrue(reopened.save(new Citizen("Comes", "Later")).getId() > highest.getId(),
+                    "A new citizen must not get the id, and so the ETag, of a deleted one");
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testTakesOverACreatedSchema() throws SQLException {
+        String url = "jdbc:sqlite:" + dir.resolve("citizens.db");
+        System.setProperty("hibernate.hbm2ddl.auto", "create");
+        try {
+            HibernateCitizenDAO created = new HibernateCitizenDAO(url, 0, 1);
+            created.save(new Citizen("Made", "Before"));
+            created.close();
+        } finally {
+            System.clearProperty("hibernate.hbm2ddl.auto");
+        }
+
+        HibernateCitizenDAO migrated = new HibernateCitizenDAO(url, 0, 1);
+        try {
+            assertEquals(1, migrated.count());
+            assertEquals(1, migrated.search("befor", 5).size());
+        } finally {
+            migrated.close();
+        }
+        assertEquals(SchemaMigrations.latest(), schemaVersion(url));
+    }
+
+    @Test
+    public void testRefusesANewerSchema() throws SQLException {
+        String url = "jdbc:sqlite:" + dir.resolve("citizens.db");
+        new HibernateCitizenDAO(url, 0, 1).close();
+        try (Connection connection = DriverManager.getConnection(SQLiteConnectionProvider.shardUrl(url, 0));
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO schema_version(version, description, applied_at) VALUES ("
+                + (SchemaMigrations.latest() + 1) + ", 'from a later build', 0)");
+        }
+        assertThrows(IllegalStateException.class, () -> new HibernateCitizenDAO(url, 0, 1),
+            "A build must not run against a schema it does not know");
+    }
+
+    private static int schemaVersion(String url) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(SQLiteConnectionProvider.shardUrl(url, 0));
+             Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            rows.next();
+            return rows.getInt(1);
+        }
+    }
+}
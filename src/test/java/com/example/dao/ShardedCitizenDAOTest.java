@@ -0,0 +1,178 @@
+package com.example.dao;
+
+import com.example.entity.Citizen;
+import com.example.entity.CitizenChange;
+import com.example.exception.CitizenRenameConflictException;
+import com.example.exception.DuplicateCitizenException;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ShardedCitizenDAOTest {
+
+    private static final int SHARDS = 3;
+
+    @TempDir
+    static Path dir;
+
+    private static ShardedCitizenDAO citizenDAO;
+
+    @BeforeAll
+    public static void setup() {
+        citizenDAO = new ShardedCitizenDAO("jdbc:sqlite:" + dir.resolve("citizens.db"), SHARDS, 4, 1000);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        citizenDAO.close();
+    }
+
+    @Test
+    @Order(1)
+    public void testSaveAndLookup() {
+        Set<Long> shardsUsed = new HashSet<>();
+        for (int i = 0; i < 30; i++) {
+            Citizen saved = citizenDAO.save(new Citizen("Name" + i, i % 2 == 0 ? "Smith" : "Jones"));
+            shardsUsed.add(saved.getId() % SHARDS);
+            assertEquals("Name" + i, citizenDAO.findById(saved.getId()).getName());
+        }
+        assertEquals(SHARDS, shardsUsed.size(), "Citizens should spread over every shard");
+        assertTrue(dir.resolve("citizens-2.db").toFile().exists(), "Each shard should have its own file");
+
+        assertEquals(30, citizenDAO.count());
+        assertTrue(citizenDAO.existsByFullName(" name3 ", "JONES", null));
+        assertThrows(DuplicateCitizenException.class, () -> citizenDAO.save(new Citizen("NAME3", "jones")));
+        assertEquals(15, citizenDAO.findBySurname("smith").size(), "Query cache results should not mix across shards");
+        assertEquals(15, citizenDAO.findBySurname("smith").size());
+    }
+
+    @Test
+    @Order(2)
+    public void testMergedQueries() {
+        List<Citizen> all = citizenDAO.findAll();
+        assertEquals(30, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getId() < all.get(i).getId(), "Merged results should be in id order");
+        }
+
+        List<Long> paged = new ArrayList<>();
+        Long afterId = null;
+        List<Citizen> page;
+        while (!(page = citizenDAO.findPage(afterId, 7)).isEmpty()) {
+            page.forEach(citizen -> paged.add(citizen.getId()));
+            afterId = page.get(page.size() - 1).getId();
+        }
+        List<Long> streamed = new ArrayList<>();
+        assertEquals(30, citizenDAO.streamAll(4, citizen -> streamed.add(citizen.getId())));
+        assertEquals(all.stream().map(Citizen::getId).toList(), paged);
+        assertEquals(paged, streamed);
+
+        List<Long> ids = List.of(all.get(5).getId(), all.get(0).getId(), 999_999L, all.get(5).getId());
+        assertEquals(List.of(all.get(5).getId(), all.get(0).getId()),
+            citizenDAO.findByIds(ids).stream().map(Citizen::getId).toList());
+
+        assertEquals(10, citizenDAO.search("name", 10).size());
+    }
+
+    @Test
+    @Order(3)
+    public void testRenameKeepsTheId() {
+        Citizen citizen = citizenDAO.findByFullName("Name0", "Smith").get(0);
+        long id = citizen.getId();
+        citizen.setName(nameIn(id % SHARDS, "Renamed"));
+        Citizen renamed = citizenDAO.save(citizen);
+        assertEquals(id, renamed.getId());
+        assertEquals(renamed.getName(), citizenDAO.findById(id).getName());
+
+        Citizen elsewhere = citizenDAO.findById(id);
+        elsewhere.setName(nameIn((id + 1) % SHARDS, "Elsewhere"));
+        assertThrows(CitizenRenameConflictException.class, () -> citizenDAO.save(elsewhere),
+            "A rename into another shard would change the id");
+        assertEquals(renamed.getName(), citizenDAO.findById(id).getName());
+        assertEquals(30, citizenDAO.count());
+    }
+
+    @Test
+    @Order(4)
+    public void testSaveAllIsAllOrNothing() {
+        List<Citizen> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(new Citizen("Batch" + i, "Brown"));
+        }
+        batch.add(new Citizen("Name1", "Jones"));
+        assertThrows(DuplicateCitizenException.class, () -> citizenDAO.saveAll(batch));
+        assertEquals(30, citizenDAO.count(), "Parts stored by other shards should be removed again");
+        assertTrue(citizenDAO.findBySurname("Brown").isEmpty());
+
+        batch.remove(batch.size() - 1);
+        batch.forEach(citizen -> citizen.setId(null));
+        citizenDAO.saveAll(batch);
+        assertEquals(20, citizenDAO.findBySurname("Brown").size());
+        assertTrue(citizenDAO.delete(batch.get(0).getId()));
+        assertNull(citizenDAO.findById(batch.get(0).getId()));
+    }
+
+    @Test
+    @Order(5)
+    public void testChangeLog() {
+        long latest = citizenDAO.latestChangeSeq();
+        List<CitizenChange> changes = citizenDAO.findChangesAfter(0, 1000);
+        assertEquals(latest, changes.get(changes.size() - 1).getSeq());
+        for (int i = 1; i < changes.size(); i++) {
+            assertEquals(changes.get(i - 1).getSeq() + 1, changes.get(i).getSeq(), "Merged numbering has no gaps");
+        }
+
+        Citizen saved = citizenDAO.save(new Citizen("Logged", "Citizen"));
+        List<CitizenChange> after = citizenDAO.findChangesAfter(latest, 10);
+        assertEquals(1, after.size());
+        assertEquals(CitizenChange.Type.CREATED, after.get(0).getType());
+        assertEquals(saved.getId(), after.get(0).getCitizenId());
+        assertEquals(saved.getId(), citizenDAO.fuzzySearch("loged citisen", 5).get(0).getId());
+    }
+
+    @Test
+    public void testReopen(@TempDir Path other) {
+        String url = "jdbc:sqlite:" + other.resolve("citizens.db");
+        System.setProperty("hibernate.hbm2ddl.auto", "create");
+        try {
+            ShardedCitizenDAO first = new ShardedCitizenDAO(url, 2, 2, 100);
+            for (int i = 0; i < 10; i++) {
+                first.save(new Citizen("Kept" + i, "Citizen"));
+            }
+            long latest = first.latestChangeSeq();
+            first.close();
+
+            System.setProperty("hibernate.hbm2ddl.auto", "none");
+            ShardedCitizenDAO reopened = new ShardedCitizenDAO(url, 2, 2, 100);
+            try {
+                assertEquals(10, reopened.count());
+                assertTrue(reopened.latestChangeSeq() >= latest, "Change numbers should keep growing");
+                assertEquals(CitizenChange.Type.RESET, reopened.findChangesAfter(0, 10).get(0).getType());
+            } finally {
+                reopened.close();
+            }
+            assertThrows(IllegalStateException.class, () -> new ShardedCitizenDAO(url, 3, 2, 100),
+                "Another shard count would look citizens up in the wrong shard");
+        } finally {
+            System.clearProperty("hibernate.hbm2ddl.auto");
+        }
+    }
+
+    // A name starting with the prefix that belongs in the given shard, with surname Smith
+    private static String nameIn(long shard, String prefix) {
+        for (char c = 'a'; ; c++) {
+            String name = prefix + c;
+            if (Math.floorMod((Citizen.normalizeKey(name) + "\nsmith").hashCode(), SHARDS) == shard) {
+                return name;
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.resource;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionFilterTest {
+
+    @Test
+    public void testBatchGetIsAnExpensiveRead() {
+        HttpServletRequest batchGet = request("POST", "/citizens/batch-get", Map.of());
+        assertFalse(AdmissionFilter.isWrite(batchGet), "A batch get only reads");
+        assertTrue(AdmissionFilter.isExpensive(batchGet));
+
+        HttpServletRequest bulk = request("POST", "/citizens/bulk/", Map.of());
+        assertTrue(AdmissionFilter.isWrite(bulk));
+        assertTrue(AdmissionFilter.isExpensive(bulk), "A trailing slash should not matter");
+    }
+
+    @Test
+    public void testClassifiesByMethodAndPath() {
+        assertTrue(AdmissionFilter.isWrite(request("POST", "/citizens", Map.of())));
+        assertTrue(AdmissionFilter.isWrite(request("PUT", "/citizens/7", Map.of())));
+        assertTrue(AdmissionFilter.isWrite(request("DELETE", "/citizens/7", Map.of())));
+        assertFalse(AdmissionFilter.isWrite(request("GET", "/citizens/7", Map.of())));
+        assertFalse(AdmissionFilter.isWrite(request("HEAD", "/citizens", Map.of())));
+
+        assertTrue(AdmissionFilter.isExpensive(request("GET", "/citizens", Map.of())));
+        assertTrue(AdmissionFilter.isExpensive(request("GET", "/citizens/export", Map.of())));
+        assertTrue(AdmissionFilter.isExpensive(request("GET", "/citizens/search/text", Map.of())));
+        assertFalse(AdmissionFilter.isExpensive(request("GET", "/citizens/7", Map.of())));
+        assertFalse(AdmissionFilter.isExpensive(request("GET", "/citizens/changes", Map.of())),
+                "The change stream is capped on its own");
+        assertFalse(AdmissionFilter.isExpensive(request("POST", "/citizens", Map.of())));
+    }
+
+    @Test
+    public void testOnlyConfiguredKeysIdentifyAClient() {
+        System.setProperty("citizen.limits.api-keys", "alpha, beta");
+        AdmissionFilter filter;
+        try {
+            filter = new AdmissionFilter();
+        } finally {
+            System.clearProperty("citizen.limits.api-keys");
+        }
+
+        assertEquals("key:beta", filter.clientOf(request("GET", "/citizens", Map.of("X-API-Key", "beta"))));
+        assertEquals("addr:10.0.0.1", filter.clientOf(request("GET", "/citizens", Map.of("X-API-Key", "gamma"))),
+                "An unknown key should fall back to the address");
+        assertEquals("addr:10.0.0.1", filter.clientOf(request("GET", "/citizens", Map.of())));
+    }
+
+    // Only what AdmissionFilter reads from a request
+    private static HttpServletRequest request(String method, String pathInfo, Map<String, String> headers) {
+        return (HttpServletRequest) Proxy.newProxyInstance(AdmissionFilterTest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, (proxy, invoked, args) -> switch (invoked.getName()) {
+                    case "getMethod" -> method;
+                    case "getPathInfo" -> pathInfo;
+                    case "getRemoteAddr" -> "10.0.0.1";
+                    case "getHeader" -> headers.get((String) args[0]);
+                    default -> throw new UnsupportedOperationException(invoked.getName());
+                });
+    }
+}
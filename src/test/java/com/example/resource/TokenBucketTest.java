@@ -0,0 +1,39 @@
+package com.example.resource;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstThenRate() {
+        TokenBucket bucket = new TokenBucket(10, 5, 0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryTake(0), "A full bucket allows a burst");
+        }
+        long wait = bucket.tryTake(0);
+        assertEquals(SECOND / 10, wait, 1, "The next token is due after 1/rate seconds");
+
+        assertTrue(bucket.tryTake(wait / 2) > 0);
+        assertEquals(0, bucket.tryTake(wait));
+        assertTrue(bucket.tryTake(wait) > 0);
+    }
+
+    @Test
+    public void testRefillsUpToCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 3, 0);
+        for (int i = 0; i < 3; i++) {
+            bucket.tryTake(0);
+        }
+        long later = 60 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.tryTake(later));
+        }
+        assertTrue(bucket.tryTake(later) > 0, "Idle time beyond a full bucket is not saved up");
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.entity.Citizen;
+import com.example.exception.CitizenValidationException;
+import java.util.Locale;
+import net.jqwik.api.*;
+
+/**
+ * CitizenValidator must accept, reject and normalize exactly like the regex-based
+ * validation it replaced, for any input and in any default locale.
+ */
+public class CitizenValidatorTest {
+
+    // Letters plus the characters the two implementations could disagree on: whitespace
+    // other than the space, control characters, non-breaking space, letters outside
+    // Latin-1, and letters whose case mapping depends on the locale
+    private static final String SPECIAL = "  \t\n\u000B\f\r\u0000\u001F '-.0_×÷ßÿŸıİIiÌÍ";
+
+    @Property(tries = 5000)
+    void matchesLegacyValidation(@ForAll("names") String name,
+                                 @ForAll("names") String surname,
+                                 @ForAll("locales") Locale locale) {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(locale);
+        try {
+            Citizen expected = new Citizen(name, surname);
+            Citizen actual = new Citizen(name, surname);
+            String expectedError = errorOf(() -> LegacyCitizenValidator.validate(expected));
+            String actualError = errorOf(() -> CitizenValidator.validate(actual));
+
+            assertEquals(expectedError, actualError);
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getSurname(), actual.getSurname());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Example
+    void keepsNormalizedNames() {
+        String name = "Jean-pierre";
+        String surname = "O'neil De La Fontaine";
+        Citizen citizen = new Citizen(name, surname);
+        CitizenValidator.validate(citizen);
+        assertSame(name, citizen.getName());
+        assertSame(surname, citizen.getSurname());
+    }
+
+    @Example
+    void rejectsNullCitizen() {
+        assertEquals("Citizen data cannot be null", errorOf(() -> CitizenValidator.validate(null)));
+    }
+
+    @Provide
+    Arbitrary<String> names() {
+        return Arbitraries.strings()
+                .withCharRange('a', 'z')
+                .withCharRange('A', 'Z')
+                .withCharRange('À', 'ÿ')
+                .withChars(SPECIAL.toCharArray())
+                .ofMinLength(0)
+                .ofMaxLength(60)
+                .injectNull(0.05);
+    }
+
+    @Provide
+    Arbitrary<Locale> locales() {
+        return Arbitraries.of(Locale.ROOT, Locale.ENGLISH, Locale.GERMAN,
+                Locale.forLanguageTag("tr"), Locale.forLanguageTag("az"), Locale.forLanguageTag("lt"));
+    }
+
+    private static String errorOf(Runnable validation) {
+        try {
+            validation.run();
+            return null;
+        } catch (CitizenValidationException e) {
+            return e.getMessage();
+        }
+    }
+}
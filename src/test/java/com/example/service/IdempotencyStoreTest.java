@@ -0,0 +1,98 @@
+package com.example.service;
+
+import com.example.service.IdempotencyStore.Claim;
+import com.example.service.IdempotencyStore.StoredResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdempotencyStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testReplayAndCoalesce() {
+        IdempotencyStore store = new IdempotencyStore(Duration.ofMinutes(1), 100, null);
+        Claim first = store.claim("addr:1", "k1", "John\nDoe");
+        assertTrue(first.isOwner());
+
+        Claim concurrent = store.claim("addr:1", "k1", "John\nDoe");
+        assertFalse(concurrent.isOwner());
+        assertFalse(concurrent.response().isDone(), "A retry during the first request waits for it");
+        assertTrue(store.claim("addr:1", "k1", "Jane\nDoe").isMismatch());
+
+        StoredResponse created = new StoredResponse(201, "application/json", "\"tag\"", "{\"id\":1}");
+        store.complete(first, created);
+        assertSame(created, concurrent.response().join());
+        Claim retry = store.claim("addr:1", "k1", "John\nDoe");
+        assertFalse(retry.isOwner());
+        assertSame(created, retry.response().getNow(null));
+    }
+
+    @Test
+    public void testReleaseLetsTheNextAttemptRun() {
+        IdempotencyStore store = new IdempotencyStore(Duration.ofMinutes(1), 100, null);
+        Claim first = store.claim("addr:1", "k1", "John\nDoe");
+        Claim waiting = store.claim("addr:1", "k1", "John\nDoe");
+        store.release(first, null);
+        assertNull(waiting.response().join(), "Those waiting are told to retry");
+
+        Claim second = store.claim("addr:1", "k1", "John\nDoe");
+        assertTrue(second.isOwner());
+        store.release(first, null);
+        assertFalse(store.claim("addr:1", "k1", "John\nDoe").isOwner(), "An old claim cannot free a newer one");
+    }
+
+    @Test
+    public void testExpires() throws InterruptedException {
+        IdempotencyStore store = new IdempotencyStore(Duration.ofMillis(50), 100, null);
+        store.complete(store.claim("addr:1", "k1", "a"), new StoredResponse(201, "application/json", null, "{}"));
+        Thread.sleep(100);
+        assertTrue(store.claim("addr:1", "k1", "a").isOwner(), "An expired key runs again");
+    }
+
+    @Test
+    public void testHoldsAtMostMaxEntries() {
+        IdempotencyStore store = new IdempotencyStore(Duration.ofMinutes(1), 3, null);
+        for (int i = 0; i < 10; i++) {
+            store.complete(store.claim("addr:1", "k" + i, "a"), new StoredResponse(201, "application/json", null, "{}"));
+        }
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    public void testKeysBelongToTheirClient() {
+        IdempotencyStore store = new IdempotencyStore(Duration.ofMinutes(1), 100, null);
+        store.complete(store.claim("key:alpha", "k1", "John\nDoe"), new StoredResponse(201, "application/json", null, "{}"));
+        assertTrue(store.claim("key:beta", "k1", "John\nDoe").isOwner(),
+                "Another client's key must not replay this client's response");
+        assertFalse(store.claim("key:alpha", "k1", "John\nDoe").isOwner());
+    }
+
+    @Test
+    public void testSurvivesRestart() {
+        String url = "jdbc:sqlite:" + dir.resolve("idempotency.db");
+        IdempotencyStore store = new IdempotencyStore(Duration.ofMinutes(1), 100, url);
+        store.complete(store.claim("addr:1", "k1", "John\nDoe"), new StoredResponse(201, "application/json", "\"t\"", "{\"id\":7}"));
+        store.release(store.claim("addr:1", "k2", "Jane\nDoe"), new StoredResponse(400, "text/plain", null, "Bad"));
+        store.close();
+
+        IdempotencyStore reopened = new IdempotencyStore(Duration.ofMinutes(1), 100, url);
+        try {
+            StoredResponse replayed = reopened.claim("addr:1", "k1", "John\nDoe").response().getNow(null);
+            assertNotNull(replayed);
+            assertEquals(201, replayed.status);
+            assertEquals("\"t\"", replayed.etag);
+            assertEquals("{\"id\":7}", replayed.body);
+            assertTrue(reopened.claim("addr:1", "k1", "Other\nName").isMismatch());
+            assertTrue(reopened.claim("addr:1", "k2", "Jane\nDoe").isOwner(), "Released keys are not kept");
+        } finally {
+            reopened.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.service;
+
+import com.example.entity.Citizen;
+import com.example.exception.CitizenValidationException;
+
+/**
+ * The regex-based validation CitizenService used before CitizenValidator, kept as the
+ * reference CitizenValidator must agree with and as the baseline for its benchmark.
+ */
+public final class LegacyCitizenValidator {
+    
+    private LegacyCitizenValidator() {}
+    
+    public static void validate(Citizen citizen) {
+        if (citizen == null) {
+            throw new CitizenValidationException("Citizen data cannot be null");
+        }
+        
+        if (citizen.getName() == null || citizen.getName().trim().isEmpty()) {
+            throw new CitizenValidationException("Citizen name is required");
+        }
+        
+        if (citizen.getSurname() == null || citizen.getSurname().trim().isEmpty()) {
+            throw new CitizenValidationException("Citizen surname is required");
+        }
+        
+        // Business rules validation
+        if (citizen.getName().trim().length() < 2) {
+            throw new CitizenValidationException("Name must be at least 2 characters long");
+        }
+        
+        if (citizen.getSurname().trim().length() < 2) {
+            throw new CitizenValidationException("Surname must be at least 2 characters long");
+        }
+        
+        if (citizen.getName().trim().length() > 50) {
+            throw new CitizenValidationException("Name cannot exceed 50 characters");
+        }
+        
+        if (citizen.getSurname().trim().length() > 50) {
+            throw new CitizenValidationException("Surname cannot exceed 50 characters");
+        }
+        
+        // Check for invalid characters (only letters, spaces, hyphens, apostrophes)
+        if (!isValidName(citizen.getName().trim())) {
+            throw new CitizenValidationException("Name contains invalid characters");
+        }
+        
+        if (!isValidName(citizen.getSurname().trim())) {
+            throw new CitizenValidationException("Surname contains invalid characters");
+        }
+        
+        // Trim and normalize the names
+        citizen.setName(normalizeName(citizen.getName()));
+        citizen.setSurname(normalizeName(citizen.getSurname()));
+    }
+    
+    private static boolean isValidName(String name) {
+        // Allow letters, spaces, hyphens, and apostrophes
+        return name.matches("^[a-zA-ZÀ-ÿ\\s'-]+$");
+    }
+    
+    private static String normalizeName(String name) {
+        // Trim, convert to proper case (first letter uppercase, rest lowercase)
+        if (name == null || name.trim().isEmpty()) {
+            return name;
+        }
+        
+        String trimmed = name.trim();
+        String[] words = trimmed.split("\\s+");
+        StringBuilder normalized = new StringBuilder();
+        
+        for (int i = 0; i < words.length; i++) {
+            if (i > 0) {
+                normalized.append(" ");
+            }
+            String word = words[i];
+            if (!word.isEmpty()) {
+                normalized.append(Character.toUpperCase(word.charAt(0)))
+                          .append(word.substring(1).toLowerCase());
+            }
+        }
+        
+        return normalized.toString();
+    }
+}